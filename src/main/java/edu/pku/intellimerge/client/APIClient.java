@@ -1,8 +1,10 @@
 package edu.pku.intellimerge.client;
 
 import com.google.common.base.Stopwatch;
+import edu.pku.intellimerge.core.FragmentStore;
 import edu.pku.intellimerge.core.GraphBuilderV2;
 import edu.pku.intellimerge.core.GraphMerger;
+import edu.pku.intellimerge.core.ParseCache;
 import edu.pku.intellimerge.exception.RangeNullException;
 import edu.pku.intellimerge.io.GraphExporter;
 import edu.pku.intellimerge.io.SourceFileCollector;
@@ -12,6 +14,7 @@ import edu.pku.intellimerge.model.SemanticNode;
 import edu.pku.intellimerge.model.constant.Side;
 import edu.pku.intellimerge.model.mapping.Refactoring;
 import edu.pku.intellimerge.model.mapping.TwowayMatching;
+import edu.pku.intellimerge.util.PipelineScheduler;
 import edu.pku.intellimerge.util.Utils;
 import org.eclipse.jgit.lib.Repository;
 import org.jgrapht.Graph;
@@ -21,8 +24,6 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -40,6 +41,8 @@ public class APIClient {
   private String DIFF_DIR;
   private String RESULT_DIR;
   private boolean hasMultipleModules;
+  // parsed files persisted on disk across merge scenarios, null to disable
+  private FragmentStore fragmentStore;
 
   public APIClient(
       String REPO_NAME,
@@ -74,6 +77,10 @@ public class APIClient {
     this.hasMultipleModules = hasMultipleModules;
   }
 
+  public void setFragmentStore(FragmentStore fragmentStore) {
+    this.fragmentStore = fragmentStore;
+  }
+
   /**
    * Generate one single merge scenario (mainly for testing)
    *
@@ -174,30 +181,40 @@ public class APIClient {
     // 2.1 Build ours/theirs graphs with collected files
     Stopwatch stopwatch = Stopwatch.createStarted();
     boolean hasMultipleModule = true;
-    ExecutorService executorService = Executors.newFixedThreadPool(3);
-
-    Future<Graph<SemanticNode, SemanticEdge>> oursBuilder =
-        executorService.submit(
-            new GraphBuilderV2(
-                mergeScenario, Side.OURS, collectedFileDir, hasMultipleModule));
-    Future<Graph<SemanticNode, SemanticEdge>> baseBuilder =
-        executorService.submit(
-            new GraphBuilderV2(
-                mergeScenario, Side.BASE, collectedFileDir, hasMultipleModule));
-    Future<Graph<SemanticNode, SemanticEdge>> theirsBuilder =
-        executorService.submit(
-            new GraphBuilderV2(
-                mergeScenario, Side.THEIRS, collectedFileDir, hasMultipleModule));
-    Graph<SemanticNode, SemanticEdge> oursGraph = oursBuilder.get();
-    Graph<SemanticNode, SemanticEdge> baseGraph = baseBuilder.get();
-    Graph<SemanticNode, SemanticEdge> theirsGraph = theirsBuilder.get();
-
-    stopwatch.stop();
-    logger.info(
-        "Building graph done for {} within {}ms.",
-        mergeScenario.mergeCommitID,
-        stopwatch.elapsed(TimeUnit.MILLISECONDS));
-    executorService.shutdown();
+    PipelineScheduler scheduler = PipelineScheduler.getDefault();
+    Graph<SemanticNode, SemanticEdge> oursGraph;
+    Graph<SemanticNode, SemanticEdge> baseGraph;
+    Graph<SemanticNode, SemanticEdge> theirsGraph;
+    PipelineScheduler.Phase buildingPhase = scheduler.startPhase("building");
+    try {
+      // files identical in several sides are only parsed once
+      ParseCache parseCache = new ParseCache(fragmentStore);
+      GraphBuilderV2 oursGraphBuilder =
+          new GraphBuilderV2(mergeScenario, Side.OURS, collectedFileDir, hasMultipleModule);
+      oursGraphBuilder.setParseCache(parseCache);
+      Future<Graph<SemanticNode, SemanticEdge>> oursBuilder = scheduler.submit(oursGraphBuilder);
+      GraphBuilderV2 baseGraphBuilder =
+          new GraphBuilderV2(mergeScenario, Side.BASE, collectedFileDir, hasMultipleModule);
+      baseGraphBuilder.setParseCache(parseCache);
+      Future<Graph<SemanticNode, SemanticEdge>> baseBuilder = scheduler.submit(baseGraphBuilder);
+      GraphBuilderV2 theirsGraphBuilder =
+          new GraphBuilderV2(mergeScenario, Side.THEIRS, collectedFileDir, hasMultipleModule);
+      theirsGraphBuilder.setParseCache(parseCache);
+      Future<Graph<SemanticNode, SemanticEdge>> theirsBuilder =
+          scheduler.submit(theirsGraphBuilder);
+      oursGraph = oursBuilder.get();
+      baseGraph = baseBuilder.get();
+      theirsGraph = theirsBuilder.get();
+
+      stopwatch.stop();
+      logger.info(
+          "Building graph done for {} within {}ms.",
+          mergeScenario.mergeCommitID,
+          stopwatch.elapsed(TimeUnit.MILLISECONDS));
+      logger.info("{}", parseCache);
+    } finally {
+      buildingPhase.close();
+    }
     //    stopwatch.reset().start();
 
     String mergeResultDir =
@@ -212,11 +229,21 @@ public class APIClient {
         new GraphMerger(mergeResultDir, oursGraph, baseGraph, theirsGraph);
     // 3. Match node and merge the 3-way graphs
 
-    merger.threewayMap();
+    PipelineScheduler.Phase matchingPhase = scheduler.startPhase("matching");
+    try {
+      merger.threewayMap();
+    } finally {
+      matchingPhase.close();
+    }
     logger.info("Matching done for {}", mergeScenario.mergeCommitID);
 
     // 4. Print the merged graph into code, keep the original format as possible
-    merger.threewayMerge();
+    PipelineScheduler.Phase mergingPhase = scheduler.startPhase("merging");
+    try {
+      merger.threewayMerge();
+    } finally {
+      mergingPhase.close();
+    }
     logger.info("Merging done for {}", mergeScenario.mergeCommitID);
   }
 
@@ -230,32 +257,54 @@ public class APIClient {
   public List<Long> processDirectory(String targetDir, String resultDir) throws Exception {
     String targetDirName = Utils.getDirSimpleName(targetDir);
 
-    ExecutorService executorService = Executors.newFixedThreadPool(3);
-
-    Future<Graph<SemanticNode, SemanticEdge>> oursBuilder =
-        executorService.submit(new GraphBuilderV2(Side.OURS, targetDir, hasMultipleModules));
-    Future<Graph<SemanticNode, SemanticEdge>> baseBuilder =
-        executorService.submit(new GraphBuilderV2(Side.BASE, targetDir, hasMultipleModules));
-    Future<Graph<SemanticNode, SemanticEdge>> theirsBuilder =
-        executorService.submit(
-            new GraphBuilderV2(Side.THEIRS, targetDir, hasMultipleModules));
-
-    Stopwatch stopwatch = Stopwatch.createStarted();
-    Graph<SemanticNode, SemanticEdge> oursGraph = oursBuilder.get();
-    Graph<SemanticNode, SemanticEdge> baseGraph = baseBuilder.get();
-    Graph<SemanticNode, SemanticEdge> theirsGraph = theirsBuilder.get();
-
-    stopwatch.stop();
-    executorService.shutdown();
+    PipelineScheduler scheduler = PipelineScheduler.getDefault();
+    ParseCache parseCache;
+    Stopwatch stopwatch;
+    Graph<SemanticNode, SemanticEdge> oursGraph;
+    Graph<SemanticNode, SemanticEdge> baseGraph;
+    Graph<SemanticNode, SemanticEdge> theirsGraph;
+    PipelineScheduler.Phase buildingPhase = scheduler.startPhase("building");
+    try {
+      // files identical in several sides are only parsed once
+      parseCache = new ParseCache(fragmentStore);
+      GraphBuilderV2 oursGraphBuilder =
+          new GraphBuilderV2(Side.OURS, targetDir, hasMultipleModules);
+      oursGraphBuilder.setParseCache(parseCache);
+      Future<Graph<SemanticNode, SemanticEdge>> oursBuilder = scheduler.submit(oursGraphBuilder);
+      GraphBuilderV2 baseGraphBuilder =
+          new GraphBuilderV2(Side.BASE, targetDir, hasMultipleModules);
+      baseGraphBuilder.setParseCache(parseCache);
+      Future<Graph<SemanticNode, SemanticEdge>> baseBuilder = scheduler.submit(baseGraphBuilder);
+      GraphBuilderV2 theirsGraphBuilder =
+          new GraphBuilderV2(Side.THEIRS, targetDir, hasMultipleModules);
+      theirsGraphBuilder.setParseCache(parseCache);
+      Future<Graph<SemanticNode, SemanticEdge>> theirsBuilder =
+          scheduler.submit(theirsGraphBuilder);
+
+      stopwatch = Stopwatch.createStarted();
+      oursGraph = oursBuilder.get();
+      baseGraph = baseBuilder.get();
+      theirsGraph = theirsBuilder.get();
+
+      stopwatch.stop();
+    } finally {
+      buildingPhase.close();
+    }
     long buildingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
     logger.info("({}ms) Building graph done for {}.", buildingTime, targetDirName);
+    logger.info("{}", parseCache);
 
     Utils.prepareDir(resultDir);
     GraphMerger merger =
         new GraphMerger(resultDir, oursGraph, baseGraph, theirsGraph);
     // 3. Match node and merge the 3-way graphs.
     stopwatch.reset().start();
-    merger.threewayMap();
+    PipelineScheduler.Phase matchingPhase = scheduler.startPhase("matching");
+    try {
+      merger.threewayMap();
+    } finally {
+      matchingPhase.close();
+    }
     stopwatch.stop();
     long matchingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
     logger.info("({}ms) Matching done for {}.", matchingTime, targetDirName);
@@ -268,7 +317,12 @@ public class APIClient {
 
     // 4. Print the merged graph into code, keep the original format as possible
     stopwatch.reset().start();
-    List<String> mergedFilePaths = merger.threewayMerge();
+    PipelineScheduler.Phase mergingPhase = scheduler.startPhase("merging");
+    try {
+      merger.threewayMerge();
+    } finally {
+      mergingPhase.close();
+    }
     stopwatch.stop();
     long mergingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
     logger.info("({}ms) Merging done for {}.", matchingTime, targetDirName);
@@ -5,8 +5,10 @@ import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.github.javaparser.JavaParser;
 import com.google.common.base.Stopwatch;
+import edu.pku.intellimerge.core.FragmentStore;
 import edu.pku.intellimerge.core.GraphBuilderV2;
 import edu.pku.intellimerge.core.GraphMerger;
+import edu.pku.intellimerge.core.ParseCache;
 import edu.pku.intellimerge.exception.RangeNullException;
 import edu.pku.intellimerge.io.SourceFileCollector;
 import edu.pku.intellimerge.model.MergeScenario;
@@ -15,6 +17,7 @@ import edu.pku.intellimerge.model.SemanticNode;
 import edu.pku.intellimerge.model.constant.Side;
 import edu.pku.intellimerge.model.mapping.Refactoring;
 import edu.pku.intellimerge.util.GitService;
+import edu.pku.intellimerge.util.PipelineScheduler;
 import edu.pku.intellimerge.util.Utils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.log4j.BasicConfigurator;
@@ -24,12 +27,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -75,6 +81,47 @@ public class IntelliMerge {
       description = "[Optional] The threshold value for heuristic rules, default: 0.618.")
   String thresholdString = "0.618";
 
+  @Parameter(
+      names = {"-c", "--cacheDir"},
+      arity = 1,
+      description =
+          "[Optional] Absolute path of a directory to cache parsed files across runs, default: no cache.")
+  String cacheDir = "";
+
+  @Parameter(
+      names = {"--cacheSize"},
+      arity = 1,
+      description = "[Optional] Max size of the cache directory in MB, default: 512.")
+  long cacheSize = 512;
+
+  @Parameter(
+      names = {"--threads"},
+      arity = 1,
+      description = "[Optional] Number of worker threads shared by all phases, default: cores.")
+  int threads = 0;
+
+  @Parameter(
+      names = {"--maxPendingTasks"},
+      arity = 1,
+      description = "[Optional] Max number of tasks waiting for workers, default: 4 * threads.")
+  int maxPendingTasks = 0;
+
+  @Parameter(
+      names = {"--partitionedMatching"},
+      arity = 1,
+      description =
+          "[Optional] Whether to match members within matched types in parallel first, default: false.")
+  boolean partitionedMatching = false;
+
+  @Parameter(
+      names = {"--parallelMerge"},
+      arity = 1,
+      description = "[Optional] Whether to merge and print files in parallel, default: false.")
+  boolean parallelMerge = false;
+
+  // parsed files persisted on disk, created on first use
+  private FragmentStore fragmentStore;
+
   public IntelliMerge() {
     JavaParser.getStaticConfiguration().setAttributeComments(true);
   }
@@ -164,6 +211,7 @@ public class IntelliMerge {
     try {
       commandLineOptions.parse(args);
       checkArguments(this);
+      configureScheduler();
       if (repoPath.length() > 0 && !branchNames.isEmpty()) {
         mergeBranches(repoPath, branchNames, outputPath, hasSubModule);
       } else if (!directoryPaths.isEmpty()) {
@@ -176,6 +224,15 @@ public class IntelliMerge {
     }
   }
 
+  /** Replace the default scheduler if the number of threads or pending tasks is specified */
+  private void configureScheduler() {
+    if (threads > 0 || maxPendingTasks > 0) {
+      int parallelism = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+      PipelineScheduler.configureDefault(
+          parallelism, maxPendingTasks > 0 ? maxPendingTasks : parallelism * 4);
+    }
+  }
+
   /**
    * Collect, analyze, match and merge java files collected in one merge scenario
    *
@@ -187,45 +244,67 @@ public class IntelliMerge {
       throws Exception {
 
     // 1. Collect diff java files and imported files between ours/theirs commit and base commit
-    // Collect source files to be analyzed in the system temp dir
-    // For Windows: C:\Users\USERNAME\AppData\Local\Temp\IntelliMerge\
-    String collectedDir = System.getProperty("java.io.tmpdir") + "IntelliMerge2" + File.separator;
-
-    SourceFileCollector collector = new SourceFileCollector(repoPath, branchNames, collectedDir);
+    // Collect source files to be analyzed in memory, so no temp dir is shared by concurrent merges
+    SourceFileCollector collector = new SourceFileCollector(repoPath, branchNames);
+    // files changed on only one side are resolved without building graphs for them
+    collector.setResolveOneSideChanges(true);
 
     collector.collectFilesForAllSides();
-    logger.info("Done collecting files into {}", collectedDir);
+    logger.info("Done collecting files in memory.");
 
     // 2. Build graphs from collected files
     Stopwatch stopwatch = Stopwatch.createStarted();
-    ExecutorService executorService = Executors.newFixedThreadPool(3);
-
-    MergeScenario mergeScenario = collector.getMergeScenario();
-    Future<Graph<SemanticNode, SemanticEdge>> oursBuilder =
-        executorService.submit(
-            new GraphBuilderV2(mergeScenario, Side.OURS, collectedDir, hasSubModule));
-    Future<Graph<SemanticNode, SemanticEdge>> baseBuilder =
-        executorService.submit(
-            new GraphBuilderV2(mergeScenario, Side.BASE, collectedDir, hasSubModule));
-    Future<Graph<SemanticNode, SemanticEdge>> theirsBuilder =
-        executorService.submit(
-            new GraphBuilderV2(mergeScenario, Side.THEIRS, collectedDir, hasSubModule));
-    Graph<SemanticNode, SemanticEdge> oursGraph = oursBuilder.get();
-    Graph<SemanticNode, SemanticEdge> baseGraph = baseBuilder.get();
-    Graph<SemanticNode, SemanticEdge> theirsGraph = theirsBuilder.get();
-
-    stopwatch.stop();
-    long buildingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
-    logger.info("({}ms) Done building graphs.", buildingTime);
-    executorService.shutdown();
+    PipelineScheduler scheduler = PipelineScheduler.getDefault();
+    Graph<SemanticNode, SemanticEdge> oursGraph;
+    Graph<SemanticNode, SemanticEdge> baseGraph;
+    Graph<SemanticNode, SemanticEdge> theirsGraph;
+    long buildingTime;
+    PipelineScheduler.Phase buildingPhase = scheduler.startPhase("building");
+    try {
+      MergeScenario mergeScenario = collector.getMergeScenario();
+      // files identical in several sides are only parsed once
+      ParseCache parseCache = createParseCache();
+      GraphBuilderV2 oursGraphBuilder =
+          new GraphBuilderV2(mergeScenario, Side.OURS, collector.getCollectedSources(Side.OURS));
+      oursGraphBuilder.setParseCache(parseCache);
+      Future<Graph<SemanticNode, SemanticEdge>> oursBuilder = scheduler.submit(oursGraphBuilder);
+      GraphBuilderV2 baseGraphBuilder =
+          new GraphBuilderV2(mergeScenario, Side.BASE, collector.getCollectedSources(Side.BASE));
+      baseGraphBuilder.setParseCache(parseCache);
+      Future<Graph<SemanticNode, SemanticEdge>> baseBuilder = scheduler.submit(baseGraphBuilder);
+      GraphBuilderV2 theirsGraphBuilder =
+          new GraphBuilderV2(
+              mergeScenario, Side.THEIRS, collector.getCollectedSources(Side.THEIRS));
+      theirsGraphBuilder.setParseCache(parseCache);
+      Future<Graph<SemanticNode, SemanticEdge>> theirsBuilder =
+          scheduler.submit(theirsGraphBuilder);
+      oursGraph = oursBuilder.get();
+      baseGraph = baseBuilder.get();
+      theirsGraph = theirsBuilder.get();
+
+      stopwatch.stop();
+      buildingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+      logger.info("({}ms) Done building graphs.", buildingTime);
+      logger.info("{}", parseCache);
+    } finally {
+      buildingPhase.close();
+    }
 
     Utils.prepareDir(outputPath);
     GraphMerger merger = new GraphMerger(outputPath, oursGraph, baseGraph, theirsGraph);
+    merger.setPartitionedMatching(partitionedMatching);
+    merger.setParallelMerge(parallelMerge);
 
     //    GraphExporter.printAsDot(baseGraph, false);
     // 3. Match nodes and merge programs with the 3-way graphs
     stopwatch.reset().start();
-    Pair<List<Refactoring>, List<Refactoring>> refactorings = merger.threewayMap();
+    Pair<List<Refactoring>, List<Refactoring>> refactorings;
+    PipelineScheduler.Phase matchingPhase = scheduler.startPhase("matching");
+    try {
+      refactorings = merger.threewayMap();
+    } finally {
+      matchingPhase.close();
+    }
     stopwatch.stop();
     long matchingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
     logger.info("({}ms) Done matching graphs.", matchingTime);
@@ -238,16 +317,20 @@ public class IntelliMerge {
 
     // 4. Print the merged graph into files, keeping the original format and directory structure
     stopwatch.reset().start();
-    List<String> mergedFilePaths = merger.threewayMerge();
+    List<String> mergedFilePaths;
+    PipelineScheduler.Phase mergingPhase = scheduler.startPhase("merging");
+    try {
+      mergedFilePaths = merger.threewayMerge();
+      mergedFilePaths.addAll(saveResolvedFiles(collector.getResolvedSources(), outputPath));
+    } finally {
+      mergingPhase.close();
+    }
     stopwatch.stop();
     long mergingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
     logger.info("({}ms) Done merging programs.", mergingTime);
 
     long overall = buildingTime + matchingTime + mergingTime;
     logger.info("Merged {} files. Overall time cost: {}ms.", mergedFilePaths.size(), overall);
-
-    // Clear and remove temp directory
-    Utils.removeDir(collectedDir);
     return mergedFilePaths;
   }
 
@@ -260,32 +343,58 @@ public class IntelliMerge {
   public List<String> mergeDirectories(List<String> directoryPaths, String outputPath)
       throws Exception {
 
-    ExecutorService executorService = Executors.newFixedThreadPool(3);
-
-    // 1. Build graphs from given directories
-    Future<Graph<SemanticNode, SemanticEdge>> oursBuilder =
-        executorService.submit(new GraphBuilderV2(directoryPaths.get(0), Side.OURS, hasSubModule));
-    Future<Graph<SemanticNode, SemanticEdge>> baseBuilder =
-        executorService.submit(new GraphBuilderV2(directoryPaths.get(1), Side.BASE, hasSubModule));
-    Future<Graph<SemanticNode, SemanticEdge>> theirsBuilder =
-        executorService.submit(new GraphBuilderV2(directoryPaths.get(2), Side.THEIRS, hasSubModule));
-
-    Stopwatch stopwatch = Stopwatch.createStarted();
-    Graph<SemanticNode, SemanticEdge> oursGraph = oursBuilder.get();
-    Graph<SemanticNode, SemanticEdge> baseGraph = baseBuilder.get();
-    Graph<SemanticNode, SemanticEdge> theirsGraph = theirsBuilder.get();
-
-    stopwatch.stop();
-    executorService.shutdown();
+    PipelineScheduler scheduler = PipelineScheduler.getDefault();
+    ParseCache parseCache;
+    Stopwatch stopwatch;
+    Graph<SemanticNode, SemanticEdge> oursGraph;
+    Graph<SemanticNode, SemanticEdge> baseGraph;
+    Graph<SemanticNode, SemanticEdge> theirsGraph;
+    PipelineScheduler.Phase buildingPhase = scheduler.startPhase("building");
+    try {
+      // 1. Build graphs from given directories
+      // files identical in several sides are only parsed once
+      parseCache = createParseCache();
+      GraphBuilderV2 oursGraphBuilder =
+          new GraphBuilderV2(directoryPaths.get(0), Side.OURS, hasSubModule);
+      oursGraphBuilder.setParseCache(parseCache);
+      Future<Graph<SemanticNode, SemanticEdge>> oursBuilder = scheduler.submit(oursGraphBuilder);
+      GraphBuilderV2 baseGraphBuilder =
+          new GraphBuilderV2(directoryPaths.get(1), Side.BASE, hasSubModule);
+      baseGraphBuilder.setParseCache(parseCache);
+      Future<Graph<SemanticNode, SemanticEdge>> baseBuilder = scheduler.submit(baseGraphBuilder);
+      GraphBuilderV2 theirsGraphBuilder =
+          new GraphBuilderV2(directoryPaths.get(2), Side.THEIRS, hasSubModule);
+      theirsGraphBuilder.setParseCache(parseCache);
+      Future<Graph<SemanticNode, SemanticEdge>> theirsBuilder =
+          scheduler.submit(theirsGraphBuilder);
+
+      stopwatch = Stopwatch.createStarted();
+      oursGraph = oursBuilder.get();
+      baseGraph = baseBuilder.get();
+      theirsGraph = theirsBuilder.get();
+
+      stopwatch.stop();
+    } finally {
+      buildingPhase.close();
+    }
     long buildingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
     logger.info("({}ms) Done building graphs.", buildingTime);
+    logger.info("{}", parseCache);
 
     Utils.prepareDir(outputPath);
     GraphMerger merger = new GraphMerger(outputPath, oursGraph, baseGraph, theirsGraph);
+    merger.setPartitionedMatching(partitionedMatching);
+    merger.setParallelMerge(parallelMerge);
 
     // 2. Match nodes across the 3-way graphs.
     stopwatch.reset().start();
-    Pair<List<Refactoring>, List<Refactoring>> refactorings = merger.threewayMap();
+    Pair<List<Refactoring>, List<Refactoring>> refactorings;
+    PipelineScheduler.Phase matchingPhase = scheduler.startPhase("matching");
+    try {
+      refactorings = merger.threewayMap();
+    } finally {
+      matchingPhase.close();
+    }
     stopwatch.stop();
     long matchingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
     logger.info("({}ms) Done matching graphs.", matchingTime);
@@ -298,7 +407,13 @@ public class IntelliMerge {
 
     // 3. Merge programs with the 3-way graphs, keeping the original format and directory structure
     stopwatch.reset().start();
-    List<String> mergedFilePaths = merger.threewayMerge();
+    List<String> mergedFilePaths;
+    PipelineScheduler.Phase mergingPhase = scheduler.startPhase("merging");
+    try {
+      mergedFilePaths = merger.threewayMerge();
+    } finally {
+      mergingPhase.close();
+    }
     stopwatch.stop();
     long mergingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
     logger.info("({}ms) Done merging programs.", mergingTime);
@@ -321,33 +436,58 @@ public class IntelliMerge {
   public List<Long> mergeDirectories(
       List<String> directoryPaths, String outputPath, boolean hasSubModule) throws Exception {
 
-    ExecutorService executorService = Executors.newFixedThreadPool(3);
-
-    // 1. Build graphs from given directories
-    Future<Graph<SemanticNode, SemanticEdge>> oursBuilder =
-        executorService.submit(new GraphBuilderV2(directoryPaths.get(0), Side.OURS, hasSubModule));
-    Future<Graph<SemanticNode, SemanticEdge>> baseBuilder =
-        executorService.submit(new GraphBuilderV2(directoryPaths.get(1), Side.BASE, hasSubModule));
-    Future<Graph<SemanticNode, SemanticEdge>> theirsBuilder =
-        executorService.submit(
-            new GraphBuilderV2(directoryPaths.get(2), Side.THEIRS, hasSubModule));
-
-    Stopwatch stopwatch = Stopwatch.createStarted();
-    Graph<SemanticNode, SemanticEdge> oursGraph = oursBuilder.get();
-    Graph<SemanticNode, SemanticEdge> baseGraph = baseBuilder.get();
-    Graph<SemanticNode, SemanticEdge> theirsGraph = theirsBuilder.get();
-
-    stopwatch.stop();
-    executorService.shutdown();
+    PipelineScheduler scheduler = PipelineScheduler.getDefault();
+    ParseCache parseCache;
+    Stopwatch stopwatch;
+    Graph<SemanticNode, SemanticEdge> oursGraph;
+    Graph<SemanticNode, SemanticEdge> baseGraph;
+    Graph<SemanticNode, SemanticEdge> theirsGraph;
+    PipelineScheduler.Phase buildingPhase = scheduler.startPhase("building");
+    try {
+      // 1. Build graphs from given directories
+      // files identical in several sides are only parsed once
+      parseCache = createParseCache();
+      GraphBuilderV2 oursGraphBuilder =
+          new GraphBuilderV2(directoryPaths.get(0), Side.OURS, hasSubModule);
+      oursGraphBuilder.setParseCache(parseCache);
+      Future<Graph<SemanticNode, SemanticEdge>> oursBuilder = scheduler.submit(oursGraphBuilder);
+      GraphBuilderV2 baseGraphBuilder =
+          new GraphBuilderV2(directoryPaths.get(1), Side.BASE, hasSubModule);
+      baseGraphBuilder.setParseCache(parseCache);
+      Future<Graph<SemanticNode, SemanticEdge>> baseBuilder = scheduler.submit(baseGraphBuilder);
+      GraphBuilderV2 theirsGraphBuilder =
+          new GraphBuilderV2(directoryPaths.get(2), Side.THEIRS, hasSubModule);
+      theirsGraphBuilder.setParseCache(parseCache);
+      Future<Graph<SemanticNode, SemanticEdge>> theirsBuilder =
+          scheduler.submit(theirsGraphBuilder);
+
+      stopwatch = Stopwatch.createStarted();
+      oursGraph = oursBuilder.get();
+      baseGraph = baseBuilder.get();
+      theirsGraph = theirsBuilder.get();
+
+      stopwatch.stop();
+    } finally {
+      buildingPhase.close();
+    }
     long buildingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
     logger.info("({}ms) Done building graphs.", buildingTime);
+    logger.info("{}", parseCache);
 
     Utils.prepareDir(outputPath);
     GraphMerger merger = new GraphMerger(outputPath, oursGraph, baseGraph, theirsGraph);
+    merger.setPartitionedMatching(partitionedMatching);
+    merger.setParallelMerge(parallelMerge);
 
     // 2. Match nodes across the 3-way graphs.
     stopwatch.reset().start();
-    Pair<List<Refactoring>, List<Refactoring>> refactorings = merger.threewayMap();
+    Pair<List<Refactoring>, List<Refactoring>> refactorings;
+    PipelineScheduler.Phase matchingPhase = scheduler.startPhase("matching");
+    try {
+      refactorings = merger.threewayMap();
+    } finally {
+      matchingPhase.close();
+    }
     stopwatch.stop();
     long matchingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
     logger.info("({}ms) Done matching graphs.", matchingTime);
@@ -360,7 +500,13 @@ public class IntelliMerge {
 
     // 3. Merge programs with the 3-way graphs, keeping the original format and directory structure
     stopwatch.reset().start();
-    List<String> mergedFilePaths = merger.threewayMerge();
+    List<String> mergedFilePaths;
+    PipelineScheduler.Phase mergingPhase = scheduler.startPhase("merging");
+    try {
+      mergedFilePaths = merger.threewayMerge();
+    } finally {
+      mergingPhase.close();
+    }
     stopwatch.stop();
     long mergingTime = stopwatch.elapsed(TimeUnit.MILLISECONDS);
     logger.info("({}ms) Done merging programs.", mergingTime);
@@ -376,6 +522,43 @@ public class IntelliMerge {
     return runtimes;
   }
 
+  /**
+   * Save the files resolved without analysis as they are
+   *
+   * @param resolvedSources file contents by relative path
+   * @param outputPath
+   * @return paths of the saved files
+   */
+  private List<String> saveResolvedFiles(Map<String, byte[]> resolvedSources, String outputPath) {
+    List<String> resolvedFilePaths = new ArrayList<>();
+    for (Map.Entry<String, byte[]> entry : resolvedSources.entrySet()) {
+      String resultFilePath =
+          Utils.formatPathSeparator(outputPath + File.separator + entry.getKey());
+      try {
+        Path resultFile = Paths.get(resultFilePath);
+        Files.createDirectories(resultFile.getParent());
+        Files.write(resultFile, entry.getValue());
+        resolvedFilePaths.add(resultFilePath);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    return resolvedFilePaths;
+  }
+
+  /**
+   * Create the cache for parsed files in one merge scenario, backed by the cache directory if
+   * specified
+   *
+   * @return
+   */
+  private ParseCache createParseCache() {
+    if (cacheDir.length() > 0 && fragmentStore == null) {
+      fragmentStore = new FragmentStore(cacheDir, cacheSize * 1024 * 1024);
+    }
+    return new ParseCache(fragmentStore);
+  }
+
   /**
    * Save alignment information on disk
    *
@@ -0,0 +1,177 @@
+package edu.pku.intellimerge.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fragments persisted on disk, keyed by the git blob id of the file content, so that unchanged
+ * files are not parsed again across merge scenarios and runs
+ *
+ * <p>Each fragment is saved in one file, the total size is bounded and the least recently used
+ * files are evicted first. Files written in another format version, or by incompatible classes,
+ * are treated as misses and removed.
+ */
+public class FragmentStore {
+  private static final Logger logger = LoggerFactory.getLogger(FragmentStore.class);
+  // increase when the content of fragments changes, e.g. the serialized fields of nodes, edges and
+  // symbol references, whose serialVersionUIDs are fixed
+  private static final int FORMAT_VERSION = 2;
+  private static final String SUFFIX = ".fragment";
+
+  private Path cacheDir;
+  private long maxSize; // in bytes
+  private AtomicLong totalSize = new AtomicLong();
+
+  /**
+   * @param cacheDir directory to save fragments, created if not exists
+   * @param maxSize max total size of the saved fragments in bytes
+   */
+  public FragmentStore(String cacheDir, long maxSize) {
+    this.cacheDir = Paths.get(cacheDir);
+    this.maxSize = maxSize;
+    try {
+      Files.createDirectories(this.cacheDir);
+      for (Path file : listFragmentFiles()) {
+        totalSize.addAndGet(Files.size(file));
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Load the fragment of the blob from disk
+   *
+   * @param blobId
+   * @return null if not saved or not readable
+   */
+  GraphFragment load(String blobId) {
+    Path file = getFragmentFile(blobId);
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try (ObjectInputStream in =
+        new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() == FORMAT_VERSION) {
+        GraphFragment fragment = GraphFragment.readFrom(in);
+        // mark as recently used
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        return fragment;
+      }
+    } catch (IOException | ClassNotFoundException | ClassCastException e) {
+      // written by an incompatible version, or evicted at the same time
+      logger.debug("Discard stale fragment {}: {}", blobId, e.getMessage());
+    }
+    // remove after the stream is closed
+    remove(file);
+    return null;
+  }
+
+  /**
+   * Save the fragment of the blob to disk, and evict the least recently used fragments if the max
+   * size is exceeded
+   *
+   * @param blobId
+   * @param fragment
+   */
+  void save(String blobId, GraphFragment fragment) {
+    Path file = getFragmentFile(blobId);
+    try {
+      // write to a temp file and move it, so others never read a half written file
+      Path tempFile = Files.createTempFile(cacheDir, blobId, ".tmp");
+      try (ObjectOutputStream out =
+          new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+        out.writeInt(FORMAT_VERSION);
+        fragment.writeTo(out);
+      } catch (IOException e) {
+        Files.deleteIfExists(tempFile);
+        throw e;
+      }
+      long size = Files.size(tempFile);
+      boolean existed = Files.exists(file);
+      Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+      if (!existed) {
+        if (totalSize.addAndGet(size) > maxSize) {
+          evict();
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /** Remove the least recently used fragments until the total size is within the max size */
+  private synchronized void evict() {
+    if (totalSize.get() <= maxSize) {
+      return;
+    }
+    try {
+      // snapshot the times, since fragments may be used during sorting
+      Map<Path, FileTime> times = new HashMap<>();
+      List<Path> files = listFragmentFiles();
+      files.forEach(file -> times.put(file, getLastModifiedTime(file)));
+      files.sort(Comparator.comparing(times::get));
+      for (Path file : files) {
+        if (totalSize.get() <= maxSize) {
+          break;
+        }
+        remove(file);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private void remove(Path file) {
+    try {
+      long size = Files.size(file);
+      if (Files.deleteIfExists(file)) {
+        totalSize.addAndGet(-size);
+      }
+    } catch (IOException e) {
+      // already removed by others
+    }
+  }
+
+  private FileTime getLastModifiedTime(Path file) {
+    try {
+      return Files.getLastModifiedTime(file);
+    } catch (IOException e) {
+      return FileTime.fromMillis(0L);
+    }
+  }
+
+  private List<Path> listFragmentFiles() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDir, "*" + SUFFIX)) {
+      stream.forEach(files::add);
+    }
+    return files;
+  }
+
+  private Path getFragmentFile(String blobId) {
+    return cacheDir.resolve(blobId + SUFFIX);
+  }
+
+  public long getTotalSize() {
+    return totalSize.get();
+  }
+}
@@ -23,31 +23,56 @@ import edu.pku.intellimerge.model.SemanticNode;
 import edu.pku.intellimerge.model.constant.EdgeType;
 import edu.pku.intellimerge.model.constant.NodeType;
 import edu.pku.intellimerge.model.constant.Side;
+import edu.pku.intellimerge.model.mapping.EdgeLabel;
 import edu.pku.intellimerge.model.mapping.NodeContext;
 import edu.pku.intellimerge.model.node.*;
+import edu.pku.intellimerge.util.PipelineScheduler;
 import edu.pku.intellimerge.util.Utils;
 import org.jgrapht.Graph;
 import org.jgrapht.graph.builder.GraphTypeBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /** Build Semantic Graph for one merge scenario, with fuzzy matching instead of symbolsolving */
 public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge>> {
   private static final Logger logger = LoggerFactory.getLogger(GraphBuilderV2.class);
+  private static final Pattern JAVA_IDENTIFIER =
+      Pattern.compile("\\p{javaJavaIdentifierStart}\\p{javaJavaIdentifierPart}*");
   private Graph<SemanticNode, SemanticEdge> graph;
+  // index of the added vertices by symbol, to resolve edges in constant time
+  private SymbolIndex symbolIndex;
   // incremental id, unique in one side's graph
   private int nodeCount;
   private int edgeCount;
   private boolean hasMultiModule;
+  // process CompilationUnits in parallel, the built graph is the same as the sequential one
+  private boolean buildInParallel = true;
+  // pool to process CompilationUnits in, shared with other phases
+  private PipelineScheduler scheduler = PipelineScheduler.getDefault();
+  // shared by the builders of all sides to parse identical files only once, optional
+  private ParseCache parseCache;
   // specify a list of files to parse, instead of parsing all files under the target dir
   private List<String> fileRelativePaths = new ArrayList<>();
+  // file contents by relative path to parse directly, instead of reading from the target dir
+  private Map<String, byte[]> sources;
 
   /*
    * a series of temp containers to keep relationships between node and symbol
@@ -59,9 +84,9 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
   private Map<SemanticNode, List<String>> implementEdges = new HashMap<>();
   private Map<SemanticNode, List<String>> declObjectEdges = new HashMap<>();
   private Map<SemanticNode, List<String>> initObjectEdges = new HashMap<>();
-  private Map<SemanticNode, List<FieldAccessExpr>> readFieldEdges = new HashMap<>();
-  private Map<SemanticNode, List<FieldAccessExpr>> writeFieldEdges = new HashMap<>();
-  private Map<SemanticNode, List<MethodCallExpr>> methodCallExprs = new HashMap<>();
+  private Map<SemanticNode, List<SymbolReference>> readFieldEdges = new HashMap<>();
+  private Map<SemanticNode, List<SymbolReference>> writeFieldEdges = new HashMap<>();
+  private Map<SemanticNode, List<SymbolReference>> methodCallExprs = new HashMap<>();
 
   private MergeScenario mergeScenario;
   private Side side;
@@ -82,6 +107,7 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
 
     this.sideDir = targetDir + File.separator;
     this.graph = initGraph();
+    this.symbolIndex = new SymbolIndex();
     this.nodeCount = 0;
     this.edgeCount = 0;
   }
@@ -101,6 +127,7 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
 
     this.sideDir = targetDir + File.separator + side.asString() + File.separator;
     this.graph = initGraph();
+    this.symbolIndex = new SymbolIndex();
     this.nodeCount = 0;
     this.edgeCount = 0;
   }
@@ -122,6 +149,7 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
 
     this.sideDir = targetDir + File.separator + side.asString() + File.separator;
     this.graph = initGraph();
+    this.symbolIndex = new SymbolIndex();
     this.nodeCount = 0;
     this.edgeCount = 0;
   }
@@ -142,10 +170,43 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
 
     this.sideDir = targetDir + File.separator + side.asString() + File.separator;
     this.graph = initGraph();
+    this.symbolIndex = new SymbolIndex();
     this.nodeCount = 0;
     this.nodeCount = 0;
   }
 
+  /**
+   * Analyze source files collected in memory when merging branches, without writing them to disk
+   *
+   * @param mergeScenario
+   * @param side
+   * @param sources file contents by relative path in the repository
+   */
+  public GraphBuilderV2(MergeScenario mergeScenario, Side side, Map<String, byte[]> sources) {
+    this.mergeScenario = mergeScenario;
+    this.side = side;
+    this.targetDir = "";
+    this.hasMultiModule = false;
+    this.sources = sources;
+
+    this.graph = initGraph();
+    this.symbolIndex = new SymbolIndex();
+    this.nodeCount = 0;
+    this.edgeCount = 0;
+  }
+
+  public void setBuildInParallel(boolean buildInParallel) {
+    this.buildInParallel = buildInParallel;
+  }
+
+  public void setScheduler(PipelineScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  public void setParseCache(ParseCache parseCache) {
+    this.parseCache = parseCache;
+  }
+
   /**
    * Build and initialize an empty Graph
    *
@@ -171,53 +232,56 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
     // the folder path which contains collected files to build the graph upon
     // just for sure: reinit the graph
     this.graph = initGraph();
+    this.symbolIndex = new SymbolIndex();
 
     // parse all java files in the file
     // regular project: only one source folder
     File root = new File(sideDir);
     //    sourceRoot.getParserConfiguration().setSymbolResolver(symbolSolver);
 
-    List<CompilationUnit> compilationUnits = new ArrayList<>();
-
-    if (fileRelativePaths.isEmpty()) {
-
-      List<ParseResult<CompilationUnit>> parseResults = new ArrayList<>();
-      if (hasMultiModule) {
-        // multi-module project: separated source folder for sub-projects/modules
-        ProjectRoot projectRoot = new ParserCollectionStrategy().collect(root.toPath());
-        for (SourceRoot sourceRoot : projectRoot.getSourceRoots()) {
-          parseResults.addAll(sourceRoot.tryToParseParallelized());
+    if (sources != null) {
+      List<Map.Entry<String, byte[]>> sortedSources = new ArrayList<>(sources.entrySet());
+      sortedSources.sort(Map.Entry.comparingByKey());
+      logger.info("Found ({}) files in {}.", sortedSources.size(), side.asString());
+      buildAndStitch(sortedSources, this::buildFragmentFromSource);
+    } else if (parseCache != null) {
+      // files with the same content are parsed only once for all sides
+      List<Path> files = collectSourceFiles(root);
+      logger.info("Found ({}) files in {}.", files.size(), side.asString());
+      buildAndStitch(files, this::buildFragmentWithCache);
+    } else {
+      List<CompilationUnit> compilationUnits = new ArrayList<>();
+
+      if (fileRelativePaths.isEmpty()) {
+        if (hasMultiModule) {
+          // multi-module project: separated source folder for sub-projects/modules
+          ProjectRoot projectRoot = new ParserCollectionStrategy().collect(root.toPath());
+          for (SourceRoot sourceRoot : projectRoot.getSourceRoots()) {
+            compilationUnits.addAll(getSortedCompilationUnits(sourceRoot));
+          }
+        } else {
+          SourceRoot sourceRoot = new SourceRoot(root.toPath());
+          compilationUnits.addAll(getSortedCompilationUnits(sourceRoot));
         }
       } else {
-        SourceRoot sourceRoot = new SourceRoot(root.toPath());
-        parseResults = sourceRoot.tryToParseParallelized();
-      }
-      compilationUnits.addAll(
-          parseResults.stream()
-              .filter(ParseResult::isSuccessful)
-              .map(r -> r.getResult().get())
-              .collect(Collectors.toList()));
-
-    } else {
-      for (String relativePath : fileRelativePaths) {
-        String absolutePath = sideDir + relativePath;
-        File file = new File(absolutePath);
-        if (file.exists()) {
-          try {
-            compilationUnits.add(JavaParser.parse(file));
-          } catch (FileNotFoundException e) {
-            e.printStackTrace();
+        for (String relativePath : fileRelativePaths) {
+          String absolutePath = sideDir + relativePath;
+          File file = new File(absolutePath);
+          if (file.exists()) {
+            try {
+              compilationUnits.add(JavaParser.parse(file));
+            } catch (FileNotFoundException e) {
+              e.printStackTrace();
+            }
           }
         }
       }
-    }
 
-    /*
-     * build the graph by analyzing every COMPILATION_UNIT
-     */
-    logger.info("Found ({}) files in {}.", compilationUnits.size(), side.asString());
-    for (CompilationUnit cu : compilationUnits) {
-      processCompilationUnit(cu);
+      /*
+       * build the graph by analyzing every COMPILATION_UNIT
+       */
+      logger.info("Found ({}) files in {}.", compilationUnits.size(), side.asString());
+      buildAndStitch(compilationUnits, this::buildFragment);
     }
 
     // now vertices are fixed
@@ -244,26 +308,24 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
       NodeContext context = new NodeContext(incomingEdges, outgoingEdges);
 
       for (SemanticEdge edge : incomingEdges) {
-        String edgeLabel =
-            edge.getEdgeType().toString() + "_" + graph.getEdgeTarget(edge).getNodeType();
-        Integer index = Utils.getEdgeLabelIndex(edgeLabel);
+        SemanticNode target = graph.getEdgeTarget(edge);
+        int index = EdgeLabel.indexOf(edge.getEdgeType(), target.getNodeType());
         if (index > 0) {
-          Integer value = context.getIncomingVector().get(index);
-          context.putIncomingVector(index, value + edge.getWeight());
+          context.addIncomingWeight(index, edge.getWeight());
         } else {
-          logger.error("Unexpected Incoming Label:" + edgeLabel);
+          logger.error(
+              "Unexpected Incoming Label:" + edge.getEdgeType() + "_" + target.getNodeType());
         }
       }
 
       for (SemanticEdge edge : outgoingEdges) {
-        String edgeLabel =
-            edge.getEdgeType().toString() + "_" + graph.getEdgeTarget(edge).getNodeType();
-        Integer index = Utils.getEdgeLabelIndex(edgeLabel);
+        SemanticNode target = graph.getEdgeTarget(edge);
+        int index = EdgeLabel.indexOf(edge.getEdgeType(), target.getNodeType());
         if (index > 0) {
-          Integer value = context.getOutgoingVector().get(index);
-          context.putOutgoingVector(index, value + edge.getWeight());
+          context.addOutgoingWeight(index, edge.getWeight());
         } else {
-          logger.error("Unexpected Outgoing Label:" + edgeLabel);
+          logger.error(
+              "Unexpected Outgoing Label:" + edge.getEdgeType() + "_" + target.getNodeType());
         }
       }
 
@@ -274,20 +336,221 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
   }
 
   /**
-   * Process one CompilationUnit every time
+   * Parse all files under the source root, sorted by path, so that the files are always processed
+   * in the same order as collected by {@link #collectSourceFiles(File)}
+   *
+   * @param sourceRoot
+   * @return
+   */
+  private List<CompilationUnit> getSortedCompilationUnits(SourceRoot sourceRoot) {
+    return sourceRoot.tryToParseParallelized().stream()
+        .filter(ParseResult::isSuccessful)
+        .map(r -> r.getResult().get())
+        .sorted(
+            Comparator.comparing(
+                cu -> cu.getStorage().map(CompilationUnit.Storage::getPath).get().toString()))
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Collect the paths of files to parse, in the same way as SourceRoot walks the source folder
+   *
+   * @param root
+   * @return
+   */
+  private List<Path> collectSourceFiles(File root) {
+    List<Path> files = new ArrayList<>();
+    if (!fileRelativePaths.isEmpty()) {
+      for (String relativePath : fileRelativePaths) {
+        File file = new File(sideDir + relativePath);
+        if (file.exists()) {
+          files.add(file.toPath());
+        }
+      }
+      return files;
+    }
+    List<Path> sourceRoots = new ArrayList<>();
+    if (hasMultiModule) {
+      ProjectRoot projectRoot = new ParserCollectionStrategy().collect(root.toPath());
+      projectRoot.getSourceRoots().forEach(sourceRoot -> sourceRoots.add(sourceRoot.getRoot()));
+    } else {
+      sourceRoots.add(root.toPath());
+    }
+    for (Path sourceRoot : sourceRoots) {
+      List<Path> filesInRoot = new ArrayList<>();
+      try {
+        Files.walkFileTree(
+            sourceRoot,
+            new SimpleFileVisitor<Path>() {
+              @Override
+              public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                  throws IOException {
+                // skip hidden folders and folders that cannot be packages, as SourceRoot does
+                String dirName = dir.getFileName().toString();
+                if (Files.isHidden(dir) || !JAVA_IDENTIFIER.matcher(dirName).matches()) {
+                  return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+              }
+
+              @Override
+              public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!attrs.isDirectory() && file.toString().endsWith(".java")) {
+                  filesInRoot.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+              }
+            });
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      filesInRoot.sort(Comparator.comparing(Path::toString));
+      files.addAll(filesInRoot);
+    }
+    return files;
+  }
+
+  /**
+   * Build fragments from the sources (on the shared scheduler if building in parallel), then
+   * stitch them into the graph in the order of sources
+   *
+   * @param sources
+   * @param builder
+   * @param <T>
+   */
+  private <T> void buildAndStitch(List<T> sources, Function<T, GraphFragment> builder) {
+    List<GraphFragment> fragments;
+    if (buildInParallel) {
+      try {
+        // the parallel stream runs in the pool of the calling task
+        fragments =
+            scheduler.invoke(
+                () -> sources.parallelStream().map(builder).collect(Collectors.toList()));
+      } catch (InterruptedException | ExecutionException e) {
+        throw PipelineScheduler.propagate(e);
+      }
+    } else {
+      fragments = sources.stream().map(builder).collect(Collectors.toList());
+    }
+    for (GraphFragment fragment : fragments) {
+      if (fragment != null) {
+        stitchFragment(fragment);
+      }
+    }
+  }
+
+  /**
+   * Build the fragment of one file under the side dir through the parse cache
+   *
+   * @param file
+   * @return null if the file cannot be read or parsed
+   */
+  private GraphFragment buildFragmentWithCache(Path file) {
+    byte[] content;
+    try {
+      content = Files.readAllBytes(file);
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+    String absolutePath = Utils.formatPathSeparator(file.toString());
+    String relativePath = absolutePath.replace(Utils.formatPathSeparator(sideDir), "");
+    return buildFragment(file, relativePath, absolutePath, content);
+  }
+
+  /**
+   * Build the fragment of one file collected in memory, whose relative path is also used as the
+   * absolute path
+   *
+   * @param source
+   * @return null if the file cannot be parsed
+   */
+  private GraphFragment buildFragmentFromSource(Map.Entry<String, byte[]> source) {
+    String relativePath = Utils.formatPathSeparator(source.getKey());
+    return buildFragment(Paths.get(relativePath), relativePath, relativePath, source.getValue());
+  }
+
+  /**
+   * Build the fragment from the file content, through the parse cache if given, the cached fragment
+   * is built by the side that first meets the file content, so a copy is made with attributes of
+   * this side
+   *
+   * @param file
+   * @param relativePath
+   * @param absolutePath
+   * @param content
+   * @return null if the file cannot be parsed
+   */
+  private GraphFragment buildFragment(
+      Path file, String relativePath, String absolutePath, byte[] content) {
+    if (parseCache == null) {
+      CompilationUnit cu = parse(file, content);
+      return cu == null ? null : buildFragment(cu);
+    }
+    GraphFragment cachedFragment =
+        parseCache.get(
+            ParseCache.blobId(content),
+            () -> {
+              CompilationUnit cu = parse(file, content);
+              return cu == null ? null : buildFragment(cu);
+            });
+    if (cachedFragment == null) {
+      return null;
+    }
+    return cachedFragment.copy(
+        file.getFileName().toString(),
+        relativePath,
+        absolutePath,
+        isInChangedFile(relativePath));
+  }
+
+  /**
+   * Parse the file content into a CompilationUnit stored at the given path
+   *
+   * @param file
+   * @param content
+   * @return null if the content cannot be parsed
+   */
+  private CompilationUnit parse(Path file, byte[] content) {
+    ParseResult<CompilationUnit> result =
+        new JavaParser()
+            .parse(
+                ParseStart.COMPILATION_UNIT,
+                Providers.provider(new ByteArrayInputStream(content), StandardCharsets.UTF_8));
+    if (!result.isSuccessful()) {
+      return null;
+    }
+    CompilationUnit cu = result.getResult().get();
+    cu.setStorage(file);
+    return cu;
+  }
+
+  /**
+   * Whether the file is modified: if yes, all nodes in it need to be merged (rough way)
+   *
+   * @param relativePath
+   * @return
+   */
+  private boolean isInChangedFile(String relativePath) {
+    return mergeScenario == null ? true : mergeScenario.isInChangedFile(side, relativePath);
+  }
+
+  /**
+   * Process one CompilationUnit into a fragment, which can be done in parallel since it only reads
+   * the CompilationUnit itself
    *
    * @param cu
+   * @return
    */
-  private void processCompilationUnit(CompilationUnit cu) {
+  private GraphFragment buildFragment(CompilationUnit cu) {
+    GraphFragment fragment = new GraphFragment();
     String fileName = cu.getStorage().map(CompilationUnit.Storage::getFileName).orElse("");
     String absolutePath =
         Utils.formatPathSeparator(
             cu.getStorage().map(CompilationUnit.Storage::getPath).map(Path::toString).orElse(""));
     String relativePath = absolutePath.replace(Utils.formatPathSeparator(sideDir), "");
 
-    // whether this file is modified: if yes, all nodes in it need to be merged (rough way)
-    boolean isInChangedFile =
-        mergeScenario == null ? true : mergeScenario.isInChangedFile(side, relativePath);
+    boolean isInChangedFile = isInChangedFile(relativePath);
 
     LinkedHashSet<String> importStatements = new LinkedHashSet();
 
@@ -300,7 +563,7 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
     }
     CompilationUnitNode cuNode =
         new CompilationUnitNode(
-            nodeCount++,
+            fragment.nextNodeID(),
             isInChangedFile,
             NodeType.COMPILATION_UNIT,
             fileName,
@@ -312,65 +575,31 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
             absolutePath,
             cu.getPackageDeclaration().map(PackageDeclaration::toString).orElse(""),
             importStatements);
-    graph.addVertex(cuNode);
+    fragment.cuNode = cuNode;
 
     // 1. package
     String packageName = "";
     if (cu.getPackageDeclaration().isPresent()) {
       PackageDeclaration packageDeclaration = cu.getPackageDeclaration().get();
       packageName = packageDeclaration.getNameAsString();
-      cuNode.setQualifiedName(packageName + "." + fileName);
-      // check if the package node exists
-      // if not exist, create one
+      fragment.cuQualifiedName = packageName + "." + fileName;
+      // the package node is only added if it does not exist when stitching
       String finalPackageName = packageName;
-      Optional<SemanticNode> packageDeclNodeOpt =
-          graph.vertexSet().stream()
-              .filter(
-                  node ->
-                      node.getNodeType().equals(NodeType.PACKAGE)
-                          && node.getQualifiedName().equals(finalPackageName))
-              .findAny();
-      if (!packageDeclNodeOpt.isPresent()) {
-        PackageDeclNode packageDeclNode =
-            new PackageDeclNode(
-                nodeCount++,
-                isInChangedFile,
-                NodeType.PACKAGE,
-                finalPackageName,
-                packageDeclaration.getNameAsString(),
-                packageDeclaration.toString().trim(),
-                getComment(packageDeclaration),
-                packageDeclaration.getAnnotations().stream()
-                    .map(AnnotationExpr::toString)
-                    .collect(Collectors.toList()),
-                finalPackageName,
-                Arrays.asList(finalPackageName.split(".")),
-                packageDeclaration.getRange());
-        graph.addVertex(packageDeclNode);
-
-        packageDeclNode.appendChild(cuNode);
-
-        // strange bug here: sometimes the above graph.addVertex(cuNode) fails
-        if (!graph.containsVertex(cuNode)) {
-          graph.addVertex(cuNode);
-        }
-
-        graph.addEdge(
-            packageDeclNode,
-            cuNode,
-            new SemanticEdge(edgeCount++, EdgeType.CONTAIN, packageDeclNode, cuNode));
-      } else {
-        packageDeclNodeOpt.get().appendChild(cuNode);
-
-        // strange bug here: sometimes the above graph.addVertex(cuNode) fails
-        if (!graph.containsVertex(cuNode)) {
-          graph.addVertex(cuNode);
-        }
-        graph.addEdge(
-            packageDeclNodeOpt.get(),
-            cuNode,
-            new SemanticEdge(edgeCount++, EdgeType.CONTAIN, packageDeclNodeOpt.get(), cuNode));
-      }
+      fragment.packageDeclNode =
+          new PackageDeclNode(
+              fragment.nextNodeID(),
+              isInChangedFile,
+              NodeType.PACKAGE,
+              finalPackageName,
+              packageDeclaration.getNameAsString(),
+              packageDeclaration.toString().trim(),
+              getComment(packageDeclaration),
+              packageDeclaration.getAnnotations().stream()
+                  .map(AnnotationExpr::toString)
+                  .collect(Collectors.toList()),
+              finalPackageName,
+              Arrays.asList(finalPackageName.split(".")),
+              packageDeclaration.getRange());
     }
     // 2. import
     List<ImportDeclaration> importDeclarations = cu.getImports();
@@ -384,14 +613,15 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
     // getTypes() returns top level types declared in this compilation unit
     for (TypeDeclaration td : cu.getTypes()) {
       //        td.getMembers()
-      TypeDeclNode tdNode = processTypeDeclaration(td, packageName, nodeCount++, isInChangedFile);
-      graph.addVertex(tdNode);
+      TypeDeclNode tdNode =
+          processTypeDeclaration(td, packageName, fragment.nextNodeID(), isInChangedFile);
+      fragment.addNode(tdNode);
 
       if (td.isTopLevelType()) {
 
         cuNode.appendChild(tdNode);
-        graph.addEdge(
-            cuNode, tdNode, new SemanticEdge(edgeCount++, EdgeType.DEFINE, cuNode, tdNode));
+        fragment.addDefineEdge(
+            new SemanticEdge(fragment.nextEdgeID(), EdgeType.DEFINE, cuNode, tdNode));
 
         if (td.isClassOrInterfaceDeclaration()) {
           ClassOrInterfaceDeclaration cid = (ClassOrInterfaceDeclaration) td;
@@ -402,7 +632,7 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
             List<String> temp = new ArrayList<>();
             temp.add(extendedType);
             tdNode.setExtendType(extendedType);
-            extendEdges.put(tdNode, temp);
+            fragment.extendEdges.put(tdNode, temp);
           }
           if (cid.getImplementedTypes().size() > 0) {
             List<String> implementedTypes = new ArrayList<>();
@@ -411,15 +641,129 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
                 .forEach(
                     implementedType -> implementedTypes.add(implementedType.getNameAsString()));
             tdNode.setImplementTypes(implementedTypes);
-            implementEdges.put(tdNode, implementedTypes);
+            fragment.implementEdges.put(tdNode, implementedTypes);
           }
 
           // class-imports-class(es)
-          importEdges.put(cuNode, importedClassNames);
+          fragment.importEdges.put(cuNode, importedClassNames);
         }
-        processMemebers(td, tdNode, packageName, isInChangedFile);
+        processMemebers(td, tdNode, packageName, isInChangedFile, fragment);
+      }
+    }
+    return fragment;
+  }
+
+  /**
+   * Add the nodes and edges of a fragment into the graph, and collect its pending edges
+   *
+   * <p>Fragments must be stitched in the order of CompilationUnits, to get the same graph (and
+   * ids) no matter whether they are built in parallel or not
+   *
+   * @param fragment
+   */
+  private void stitchFragment(GraphFragment fragment) {
+    CompilationUnitNode cuNode = fragment.cuNode;
+    cuNode.setNodeID(nodeCount++);
+    addVertex(cuNode);
+
+    if (fragment.packageDeclNode != null) {
+      cuNode.setQualifiedName(fragment.cuQualifiedName);
+      // check if the package node exists
+      // if not exist, add the one of this fragment
+      SemanticNode packageDeclNode =
+          symbolIndex.getByQualifiedName(
+              NodeType.PACKAGE, fragment.packageDeclNode.getQualifiedName());
+      if (packageDeclNode == null) {
+        packageDeclNode = fragment.packageDeclNode;
+        packageDeclNode.setNodeID(nodeCount++);
+        addVertex(packageDeclNode);
+      }
+      packageDeclNode.appendChild(cuNode);
+
+      // strange bug here: sometimes the above addVertex(cuNode) fails
+      if (!graph.containsVertex(cuNode)) {
+        addVertex(cuNode);
       }
+      graph.addEdge(
+          packageDeclNode,
+          cuNode,
+          new SemanticEdge(edgeCount++, EdgeType.CONTAIN, packageDeclNode, cuNode));
+    }
+
+    for (SemanticNode node : fragment.nodes) {
+      node.setNodeID(nodeCount++);
+      addVertex(node);
+    }
+    updateSubtreeHash(cuNode);
+    for (SemanticEdge edge : fragment.defineEdges) {
+      edge.setEdgeID(edgeCount++);
+      graph.addEdge(edge.getSource(), edge.getTarget(), edge);
     }
+
+    // put one by one instead of putAll, which presizes an empty map, so that the maps grow to the
+    // same capacities as in a sequential build: buildEdges iterates them in table order, which
+    // decides the ids of the edges and of the nodes created for external references
+    fragment.importEdges.forEach(importEdges::put);
+    fragment.extendEdges.forEach(extendEdges::put);
+    fragment.implementEdges.forEach(implementEdges::put);
+    fragment.declObjectEdges.forEach(declObjectEdges::put);
+    fragment.initObjectEdges.forEach(initObjectEdges::put);
+    fragment.readFieldEdges.forEach(readFieldEdges::put);
+    fragment.writeFieldEdges.forEach(writeFieldEdges::put);
+    fragment.methodCallExprs.forEach(methodCallExprs::put);
+  }
+
+  /**
+   * Compute the hash of every node in the subtree bottom-up, from what is printed for the node:
+   * the node itself and the hashes of its children in order
+   *
+   * @param node
+   * @return the subtree hash of the node, never 0
+   */
+  private long updateSubtreeHash(SemanticNode node) {
+    // FNV-1a of the content
+    long hash = 0xcbf29ce484222325L;
+    hash = (hash ^ node.getNodeType().ordinal()) * 0x100000001b3L;
+    hash = (hash ^ node.getRange().map(range -> range.begin.column).orElse(-1)) * 0x100000001b3L;
+    hash = (hash ^ node.followingEOL) * 0x100000001b3L;
+    hash = updateHash(hash, node.getOriginalSignature());
+    hash = updateHash(hash, node.getComment());
+    for (String annotation : node.getAnnotations()) {
+      hash = updateHash(hash, annotation);
+    }
+    if (node.getModifiers() != null) {
+      for (String modifier : node.getModifiers()) {
+        hash = updateHash(hash, modifier);
+      }
+    }
+    if (node instanceof TerminalNode) {
+      hash = updateHash(hash, ((TerminalNode) node).getBody());
+    } else if (node instanceof CompositeNode) {
+      hash = updateHash(hash, ((CompositeNode) node).curlyBracePrefix);
+      hash = (hash ^ ((CompositeNode) node).beforeFirstChildEOL) * 0x100000001b3L;
+    }
+    for (SemanticNode child : node.getChildren()) {
+      long childHash = updateSubtreeHash(child);
+      for (int i = 0; i < 64; i += 16) {
+        hash = (hash ^ ((childHash >>> i) & 0xffff)) * 0x100000001b3L;
+      }
+    }
+    if (hash == 0) {
+      hash = 1;
+    }
+    node.setSubtreeHash(hash);
+    return hash;
+  }
+
+  private static long updateHash(long hash, String string) {
+    if (string == null) {
+      return (hash ^ -1) * 0x100000001b3L;
+    }
+    hash = (hash ^ string.length()) * 0x100000001b3L;
+    for (int i = 0; i < string.length(); ++i) {
+      hash = (hash ^ string.charAt(i)) * 0x100000001b3L;
+    }
+    return hash;
   }
 
   /**
@@ -496,9 +840,14 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
    * @param tdNode
    * @param packageName
    * @param isInChangedFile
+   * @param fragment
    */
   private void processMemebers(
-      TypeDeclaration td, TypeDeclNode tdNode, String packageName, boolean isInChangedFile) {
+      TypeDeclaration td,
+      TypeDeclNode tdNode,
+      String packageName,
+      boolean isInChangedFile,
+      GraphFragment fragment) {
     String qualifiedTypeName = packageName + "." + td.getNameAsString();
     List<String> annotations, modifiers;
     String comment, access, displayName, qualifiedName, originalSignature, body;
@@ -521,9 +870,9 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
         if (c.isOrphan()) {
           String content = c.getTokenRange().map(TokenRange::toString).orElse("");
           OrphanCommentNode ocNode =
-              new OrphanCommentNode(nodeCount++, content, content, content, c.getRange());
+              new OrphanCommentNode(fragment.nextNodeID(), content, content, content, c.getRange());
           ocNode.followingEOL = getFollowingEOL(child);
-          graph.addVertex(ocNode);
+          fragment.addNode(ocNode);
           tdNode.appendChild(ocNode);
         }
       } else if (child instanceof TypeDeclaration) {
@@ -531,16 +880,15 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
         if (childTD.isNestedType()) {
           // add edge from the parent td to the nested td
           TypeDeclNode childTDNode =
-              processTypeDeclaration(childTD, qualifiedTypeName, nodeCount++, isInChangedFile);
-          graph.addVertex(childTDNode);
+              processTypeDeclaration(
+                  childTD, qualifiedTypeName, fragment.nextNodeID(), isInChangedFile);
+          fragment.addNode(childTDNode);
 
           tdNode.appendChild(childTDNode);
-          graph.addEdge(
-              tdNode,
-              childTDNode,
-              new SemanticEdge(edgeCount++, EdgeType.DEFINE, tdNode, childTDNode));
+          fragment.addDefineEdge(
+              new SemanticEdge(fragment.nextEdgeID(), EdgeType.DEFINE, tdNode, childTDNode));
           // process nested td members iteratively
-          processMemebers(childTD, childTDNode, qualifiedTypeName, isInChangedFile);
+          processMemebers(childTD, childTDNode, qualifiedTypeName, isInChangedFile, fragment);
         }
       } else {
         // for other members (constructor, field, terminal), create the node
@@ -556,7 +904,7 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
                   : "";
           EnumConstantDeclNode ecdNode =
               new EnumConstantDeclNode(
-                  nodeCount++,
+                  fragment.nextNodeID(),
                   isInChangedFile,
                   NodeType.ENUM_CONSTANT,
                   displayName,
@@ -566,12 +914,12 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
                   body,
                   ecd.getRange());
           ecdNode.followingEOL = getFollowingEOL(ecd);
-          graph.addVertex(ecdNode);
+          fragment.addNode(ecdNode);
 
           // add edge between field and class
           tdNode.appendChild(ecdNode);
-          graph.addEdge(
-              tdNode, ecdNode, new SemanticEdge(edgeCount++, EdgeType.DEFINE, tdNode, ecdNode));
+          fragment.addDefineEdge(
+              new SemanticEdge(fragment.nextEdgeID(), EdgeType.DEFINE, tdNode, ecdNode));
         }
         // 4. field
         if (child instanceof FieldDeclaration) {
@@ -606,7 +954,7 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
                     .collect(Collectors.toList());
             FieldDeclNode fdNode =
                 new FieldDeclNode(
-                    nodeCount++,
+                    fragment.nextNodeID(),
                     isInChangedFile,
                     NodeType.FIELD,
                     displayName,
@@ -621,12 +969,12 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
                     body,
                     fd.getRange());
             fdNode.followingEOL = getFollowingEOL(fd);
-            graph.addVertex(fdNode);
+            fragment.addNode(fdNode);
 
             // add edge between field and class
             tdNode.appendChild(fdNode);
-            graph.addEdge(
-                tdNode, fdNode, new SemanticEdge(edgeCount++, EdgeType.DEFINE, tdNode, fdNode));
+            fragment.addDefineEdge(
+                new SemanticEdge(fragment.nextEdgeID(), EdgeType.DEFINE, tdNode, fdNode));
             // 4.1 object creation in field declaration
             List<String> declClassNames = new ArrayList<>();
             List<String> initClassNames = new ArrayList<>();
@@ -640,10 +988,10 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
               }
             }
             if (declClassNames.size() > 0) {
-              declObjectEdges.put(fdNode, declClassNames);
+              fragment.declObjectEdges.put(fdNode, declClassNames);
             }
             if (initClassNames.size() > 0) {
-              initObjectEdges.put(fdNode, initClassNames);
+              fragment.initObjectEdges.put(fdNode, initClassNames);
             }
           }
         }
@@ -667,7 +1015,7 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
           qualifiedName = qualifiedTypeName + "." + displayName;
           ConstructorDeclNode cdNode =
               new ConstructorDeclNode(
-                  nodeCount++,
+                  fragment.nextNodeID(),
                   isInChangedFile,
                   NodeType.CONSTRUCTOR,
                   displayName,
@@ -696,13 +1044,13 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
               modifiers.stream().collect(Collectors.joining(" ")) + " " + originalSignature;
           cdNode.setOriginalSignature(originalSignature);
 
-          graph.addVertex(cdNode);
+          fragment.addNode(cdNode);
 
           tdNode.appendChild(cdNode);
-          graph.addEdge(
-              tdNode, cdNode, new SemanticEdge(edgeCount++, EdgeType.DEFINE, tdNode, cdNode));
+          fragment.addDefineEdge(
+              new SemanticEdge(fragment.nextEdgeID(), EdgeType.DEFINE, tdNode, cdNode));
 
-          processBodyContent(cd, cdNode);
+          processBodyContent(cd, cdNode, fragment);
         }
         // 6. MethodDeclaration
         if (child instanceof MethodDeclaration) {
@@ -756,7 +1104,7 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
 
           MethodDeclNode mdNode =
               new MethodDeclNode(
-                  nodeCount++,
+                  fragment.nextNodeID(),
                   isInChangedFile,
                   NodeType.METHOD,
                   displayName,
@@ -805,13 +1153,13 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
           mdNode.setOriginalSignature(originalSignature);
 
           mdNode.followingEOL = getFollowingEOL(md);
-          graph.addVertex(mdNode);
+          fragment.addNode(mdNode);
 
           tdNode.appendChild(mdNode);
-          graph.addEdge(
-              tdNode, mdNode, new SemanticEdge(edgeCount++, EdgeType.DEFINE, tdNode, mdNode));
+          fragment.addDefineEdge(
+              new SemanticEdge(fragment.nextEdgeID(), EdgeType.DEFINE, tdNode, mdNode));
 
-          processBodyContent(md, mdNode);
+          processBodyContent(md, mdNode, fragment);
         }
       }
 
@@ -825,7 +1173,7 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
         String signature = displayName + "." + (id.isStatic() ? "static{}" : "{}");
         InitializerDeclNode idNode =
             new InitializerDeclNode(
-                nodeCount++,
+                fragment.nextNodeID(),
                 isInChangedFile,
                 NodeType.INITIALIZER_BLOCK,
                 displayName,
@@ -836,13 +1184,13 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
                 id.getBody().toString(),
                 id.getRange());
         idNode.followingEOL = getFollowingEOL(id);
-        graph.addVertex(idNode);
+        fragment.addNode(idNode);
 
         tdNode.appendChild(idNode);
-        graph.addEdge(
-            tdNode, idNode, new SemanticEdge(edgeCount++, EdgeType.DEFINE, tdNode, idNode));
+        fragment.addDefineEdge(
+            new SemanticEdge(fragment.nextEdgeID(), EdgeType.DEFINE, tdNode, idNode));
 
-        processBodyContent(id, idNode);
+        processBodyContent(id, idNode, fragment);
       }
 
       // 8, annotation member declaration
@@ -862,7 +1210,7 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
                 : ";";
         AnnotationMemberNode amNode =
             new AnnotationMemberNode(
-                nodeCount++,
+                fragment.nextNodeID(),
                 isInChangedFile,
                 NodeType.ANNOTATION_MEMBER,
                 displayName,
@@ -875,12 +1223,12 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
                 amd.getRange());
 
         amNode.followingEOL = getFollowingEOL(amd);
-        graph.addVertex(amNode);
+        fragment.addNode(amNode);
         tdNode.appendChild(amNode);
-        graph.addEdge(
-            tdNode, amNode, new SemanticEdge(edgeCount++, EdgeType.DEFINE, tdNode, amNode));
+        fragment.addDefineEdge(
+            new SemanticEdge(fragment.nextEdgeID(), EdgeType.DEFINE, tdNode, amNode));
 
-        processBodyContent(amd, amNode);
+        processBodyContent(amd, amNode, fragment);
       }
     }
   }
@@ -891,8 +1239,10 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
    *
    * @param nodeWithBody
    * @param node
+   * @param fragment
    */
-  private void processBodyContent(Node nodeWithBody, TerminalNode node) {
+  private void processBodyContent(
+      Node nodeWithBody, TerminalNode node, GraphFragment fragment) {
     // 1 new instance
     List<ObjectCreationExpr> objectCreationExprs = nodeWithBody.findAll(ObjectCreationExpr.class);
     List<String> createObjectNames = new ArrayList<>();
@@ -901,14 +1251,14 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
       createObjectNames.add(typeName);
     }
     if (createObjectNames.size() > 0) {
-      initObjectEdges.put(node, createObjectNames);
+      fragment.initObjectEdges.put(node, createObjectNames);
     }
 
     // 2 field access
     // TODO support this.* access
     List<FieldAccessExpr> fieldAccessExprs = nodeWithBody.findAll(FieldAccessExpr.class);
-    List<FieldAccessExpr> readFieldExprs = new ArrayList<>();
-    List<FieldAccessExpr> writeFieldExprs = new ArrayList<>();
+    List<SymbolReference> readFieldExprs = new ArrayList<>();
+    List<SymbolReference> writeFieldExprs = new ArrayList<>();
     for (FieldAccessExpr fieldAccessExpr : fieldAccessExprs) {
       // internal types
       // whether the field is assigned a value
@@ -917,24 +1267,27 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
         if (parent instanceof AssignExpr) {
           AssignExpr parentAssign = (AssignExpr) parent;
           if (parentAssign.getTarget().equals(fieldAccessExpr)) {
-            writeFieldExprs.add(fieldAccessExpr);
+            writeFieldExprs.add(SymbolReference.of(fieldAccessExpr));
           } else {
-            readFieldExprs.add(fieldAccessExpr);
+            readFieldExprs.add(SymbolReference.of(fieldAccessExpr));
           }
         } else {
-          readFieldExprs.add(fieldAccessExpr);
+          readFieldExprs.add(SymbolReference.of(fieldAccessExpr));
         }
       }
     }
     if (readFieldExprs.size() > 0) {
-      readFieldEdges.put(node, readFieldExprs);
+      fragment.readFieldEdges.put(node, readFieldExprs);
     }
     if (writeFieldExprs.size() > 0) {
-      writeFieldEdges.put(node, writeFieldExprs);
+      fragment.writeFieldEdges.put(node, writeFieldExprs);
     }
     // 3 terminal call
-    List<MethodCallExpr> methodCallExprs = nodeWithBody.findAll(MethodCallExpr.class);
-    this.methodCallExprs.put(node, methodCallExprs);
+    List<SymbolReference> methodCallExprs =
+        nodeWithBody.findAll(MethodCallExpr.class).stream()
+            .map(SymbolReference::of)
+            .collect(Collectors.toList());
+    fragment.methodCallExprs.put(node, methodCallExprs);
   }
 
   /**
@@ -1121,42 +1474,31 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
    * @return
    */
   private int buildEdgesForFieldAccess(
-      int edgeCount, Map<SemanticNode, List<FieldAccessExpr>> fieldAccess, EdgeType edgeType) {
-    for (Map.Entry<SemanticNode, List<FieldAccessExpr>> entry : fieldAccess.entrySet()) {
+      int edgeCount, Map<SemanticNode, List<SymbolReference>> fieldAccess, EdgeType edgeType) {
+    for (Map.Entry<SemanticNode, List<SymbolReference>> entry : fieldAccess.entrySet()) {
       SemanticNode source = entry.getKey();
-      List<FieldAccessExpr> exprs = entry.getValue();
-      for (FieldAccessExpr expr : exprs) {
-        String fieldName = expr.getNameAsString();
-        List<SemanticNode> candidates =
-            graph.vertexSet().stream()
-                .filter(
-                    node -> {
-                      if (node.getNodeType().equals(NodeType.FIELD)) {
-                        FieldDeclNode field = (FieldDeclNode) node;
-                        return field.getFieldName().equals(fieldName);
-                      }
-                      return false;
-                    })
-                .collect(Collectors.toList());
-        if (candidates.isEmpty()) {
+      List<SymbolReference> exprs = entry.getValue();
+      for (SymbolReference expr : exprs) {
+        String fieldName = expr.getName();
+        SemanticNode candidate = symbolIndex.getField(fieldName);
+        if (candidate == null) {
           // create a dummy node for the external field
           FieldDeclNode target =
               new FieldDeclNode(
                   nodeCount++,
                   false,
                   NodeType.FIELD,
-                  expr.getNameAsString(),
+                  expr.getName(),
                   fieldName,
-                  expr.toString(),
+                  expr.getExpression(),
                   fieldName,
                   expr.getRange());
 
-          graph.addVertex(target);
+          addVertex(target);
           createEdge(edgeCount++, source, target, edgeType, false);
         } else {
           // TODO if fuzzy matching gets multiple results, just select the first one for now
-          createEdge(
-              edgeCount++, source, candidates.get(0), edgeType, candidates.get(0).isInternal());
+          createEdge(edgeCount++, source, candidate, edgeType, candidate.isInternal());
         }
       }
     }
@@ -1171,59 +1513,56 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
    * @return
    */
   private int buildEdgesForMethodCall(
-      int edgeCount, Map<SemanticNode, List<MethodCallExpr>> methodCallExprs) {
+      int edgeCount, Map<SemanticNode, List<SymbolReference>> methodCallExprs) {
     // for every terminal call, find its declaration by terminal name
     // and paramater num
-    for (Map.Entry<SemanticNode, List<MethodCallExpr>> entry : methodCallExprs.entrySet()) {
+    for (Map.Entry<SemanticNode, List<SymbolReference>> entry : methodCallExprs.entrySet()) {
       SemanticNode caller = entry.getKey();
-      List<MethodCallExpr> exprs = entry.getValue();
-      for (MethodCallExpr expr : exprs) {
+      List<SymbolReference> exprs = entry.getValue();
+      for (SymbolReference expr : exprs) {
         boolean edgeBuilt = false;
-        String methodName = expr.getNameAsString();
+        String methodName = expr.getName();
         int argNum = expr.getArguments().size();
-        List<SemanticNode> candidates =
-            graph.vertexSet().stream()
-                .filter(
-                    node -> {
-                      if (node.getNodeType().equals(NodeType.METHOD)) {
-                        MethodDeclNode method = (MethodDeclNode) node;
-                        return method.getMethodName().equals(methodName)
-                            && method.getParameterNames().size() == argNum;
-                      }
-                      return false;
-                    })
-                .collect(Collectors.toList());
-        if (candidates.isEmpty()) {
-          List<String> argumentNames =
-              expr.getArguments().stream().map(Expression::toString).collect(Collectors.toList());
+        SemanticNode candidate = symbolIndex.getMethod(methodName, argNum);
+        if (candidate == null) {
+          List<String> argumentNames = expr.getArguments();
           // create a dummy node for the external method
           MethodDeclNode externalMethod =
               new MethodDeclNode(
                   nodeCount++,
                   false,
                   NodeType.METHOD,
-                  expr.getNameAsString(),
-                  expr.getNameAsString(),
-                  expr.toString(),
+                  expr.getName(),
+                  expr.getName(),
+                  expr.getExpression(),
                   methodName,
                   argumentNames,
                   expr.getRange());
-          graph.addVertex(externalMethod);
+          addVertex(externalMethod);
           createEdge(edgeCount++, caller, externalMethod, EdgeType.CALL, false);
         } else {
           // TODO if fuzzy matching gets multiple results, just select the first one for now
-          createEdge(
-              edgeCount++,
-              caller,
-              candidates.get(0),
-              EdgeType.CALL,
-              candidates.get(0).isInternal());
+          createEdge(edgeCount++, caller, candidate, EdgeType.CALL, candidate.isInternal());
         }
       }
     }
     return edgeCount;
   }
 
+  /**
+   * Add a vertex into the graph, and index it by symbol if it is actually added
+   *
+   * @param node
+   * @return
+   */
+  private boolean addVertex(SemanticNode node) {
+    boolean isAdded = graph.addVertex(node);
+    if (isAdded) {
+      symbolIndex.index(node);
+    }
+    return isAdded;
+  }
+
   /**
    * Create an edge in the graph, if it already exists, increase the weight by one
    *
@@ -1266,18 +1605,17 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
       return edgeCount;
     }
 
-    Set<SemanticNode> vertexSet = graph.vertexSet();
     for (Map.Entry<SemanticNode, List<String>> entry : edges.entrySet()) {
       SemanticNode sourceNode = entry.getKey();
       List<String> targetNodeNames = entry.getValue();
       for (String targeNodeName : targetNodeNames) {
         SemanticNode targetNode = null;
         if (targetNodeType.equals(NodeType.FIELD)) {
-          targetNode = getTargetNodeForField(vertexSet, targeNodeName, targetNodeType);
+          targetNode = getTargetNodeForField(targeNodeName, targetNodeType);
         } else if (targetNodeType.equals(NodeType.CLASS)) {
-          targetNode = getTargetNodeForType(vertexSet, targeNodeName, targetNodeType);
+          targetNode = getTargetNodeForType(targeNodeName, targetNodeType);
         } else {
-          targetNode = getTargetNode(vertexSet, targeNodeName, targetNodeType);
+          targetNode = getTargetNode(targeNodeName, targetNodeType);
         }
         if (targetNode != null) {
           // if the edge was added to the graph, returns true; if the edges already exists, returns
@@ -1300,76 +1638,47 @@ public class GraphBuilderV2 implements Callable<Graph<SemanticNode, SemanticEdge
   }
 
   /**
-   * Get the target node from vertex set according to qualified name
+   * Get the target node from the symbol index according to qualified name
    *
-   * @param vertexSet
    * @param targetQualifiedName
    * @param targetNodeType
    * @return
    */
-  public SemanticNode getTargetNode(
-      Set<SemanticNode> vertexSet, String targetQualifiedName, NodeType targetNodeType) {
-    Optional<SemanticNode> targetNodeOpt =
-        vertexSet.stream()
-            .filter(
-                node ->
-                    node.getNodeType().equals(targetNodeType)
-                        && node.getQualifiedName().equals(targetQualifiedName))
-            .findAny();
-    return targetNodeOpt.orElse(null);
+  public SemanticNode getTargetNode(String targetQualifiedName, NodeType targetNodeType) {
+    return symbolIndex.getByQualifiedName(targetNodeType, targetQualifiedName);
   }
 
   /**
    * Get the target node for type decl or init by fuzzy matching
    *
-   * @param vertexSet
    * @param displayName
    * @param targetNodeType
    * @return
    */
-  public SemanticNode getTargetNodeForType(
-      Set<SemanticNode> vertexSet, String displayName, NodeType targetNodeType) {
-    Optional<SemanticNode> targetNodeOpt =
-        vertexSet.stream()
-            .filter(
-                node ->
-                    node.getNodeType().equals(targetNodeType)
-                        && node.getQualifiedName().equals(displayName))
-            .findAny();
-    return targetNodeOpt.orElse(null);
+  public SemanticNode getTargetNodeForType(String displayName, NodeType targetNodeType) {
+    return symbolIndex.getByQualifiedName(targetNodeType, displayName);
   }
 
   /**
    * Get the target node for field access by fuzzy matching
    *
-   * @param vertexSet
    * @param fieldAccessString
    * @param targetNodeType
    * @return
    */
-  public SemanticNode getTargetNodeForField(
-      Set<SemanticNode> vertexSet, String fieldAccessString, NodeType targetNodeType) {
+  public SemanticNode getTargetNodeForField(String fieldAccessString, NodeType targetNodeType) {
     // for field, match by field name
     if (fieldAccessString.contains(".")) {
       fieldAccessString =
           fieldAccessString.substring(
               fieldAccessString.lastIndexOf("."), fieldAccessString.length());
     }
-    String displayName = fieldAccessString;
     // for terminal, match by terminal name and paramater num
-    Optional<SemanticNode> targetNodeOpt = Optional.empty();
     if (targetNodeType.equals(NodeType.FIELD)) {
-
-      targetNodeOpt =
-          vertexSet.stream()
-              .filter(
-                  node ->
-                      node.getNodeType().equals(targetNodeType)
-                          && node.getDisplayName().equals(displayName))
-              .findAny();
+      // the display name of a field node is its field name
+      return symbolIndex.getField(fieldAccessString);
     }
-
-    return targetNodeOpt.orElse(null);
+    return null;
   }
 
   /**
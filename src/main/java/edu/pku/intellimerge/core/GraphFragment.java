@@ -0,0 +1,231 @@
+package edu.pku.intellimerge.core;
+
+import edu.pku.intellimerge.model.SemanticEdge;
+import edu.pku.intellimerge.model.SemanticNode;
+import edu.pku.intellimerge.model.constant.EdgeType;
+import edu.pku.intellimerge.model.constant.NodeType;
+import edu.pku.intellimerge.model.node.CompilationUnitNode;
+import edu.pku.intellimerge.model.node.PackageDeclNode;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Nodes and pending edges built from one CompilationUnit, without touching the graph, so that
+ * CompilationUnits can be processed independently and then stitched into the graph in order
+ *
+ * <p>Nodes and edges carry local ids (in creation order) until they are stitched, then the ids are
+ * reassigned from the graph counters, in the same order as building them one by one.
+ */
+public class GraphFragment {
+  // the compilation unit node, whose qualified name is the file name until stitched
+  CompilationUnitNode cuNode;
+  // qualified name of the compilation unit with its package, null if no package declared
+  String cuQualifiedName;
+  // the declared package, only added into the graph if it does not exist yet
+  PackageDeclNode packageDeclNode;
+  // other nodes in creation order
+  List<SemanticNode> nodes = new ArrayList<>();
+  // DEFINE edges between nodes in this fragment, in creation order
+  List<SemanticEdge> defineEdges = new ArrayList<>();
+
+  // pending edges by symbol, resolved after all fragments are stitched
+  Map<SemanticNode, List<String>> importEdges = new LinkedHashMap<>();
+  Map<SemanticNode, List<String>> extendEdges = new LinkedHashMap<>();
+  Map<SemanticNode, List<String>> implementEdges = new LinkedHashMap<>();
+  Map<SemanticNode, List<String>> declObjectEdges = new LinkedHashMap<>();
+  Map<SemanticNode, List<String>> initObjectEdges = new LinkedHashMap<>();
+  Map<SemanticNode, List<SymbolReference>> readFieldEdges = new LinkedHashMap<>();
+  Map<SemanticNode, List<SymbolReference>> writeFieldEdges = new LinkedHashMap<>();
+  Map<SemanticNode, List<SymbolReference>> methodCallExprs = new LinkedHashMap<>();
+
+  private int localNodeCount = 0;
+  private int localEdgeCount = 0;
+
+  /**
+   * Copy the fragment for another file with the same content, nodes are copied with their
+   * attributes shared, the pending edges share the symbols and references
+   *
+   * @param fileName
+   * @param relativePath
+   * @param absolutePath
+   * @param isInChangedFile
+   * @return
+   */
+  GraphFragment copy(
+      String fileName, String relativePath, String absolutePath, boolean isInChangedFile) {
+    GraphFragment copy = new GraphFragment();
+    copy.localNodeCount = localNodeCount;
+    copy.localEdgeCount = localEdgeCount;
+    Map<SemanticNode, SemanticNode> copies = new IdentityHashMap<>();
+
+    copy.cuNode =
+        new CompilationUnitNode(
+            cuNode.getNodeID(),
+            isInChangedFile,
+            NodeType.COMPILATION_UNIT,
+            fileName,
+            fileName,
+            fileName,
+            cuNode.getComment(),
+            fileName,
+            relativePath,
+            absolutePath,
+            cuNode.getPackageStatement(),
+            cuNode.getImportStatements());
+    copies.put(cuNode, copy.cuNode);
+    if (packageDeclNode != null) {
+      copy.cuQualifiedName = packageDeclNode.getQualifiedName() + "." + fileName;
+      copy.packageDeclNode = (PackageDeclNode) packageDeclNode.copy();
+      copy.packageDeclNode.setNeedToMerge(isInChangedFile);
+    }
+    for (SemanticNode node : nodes) {
+      SemanticNode nodeCopy = node.copy();
+      // orphan comments are always to be merged
+      if (!node.getNodeType().equals(NodeType.ORPHAN_COMMENT)) {
+        nodeCopy.setNeedToMerge(isInChangedFile);
+      }
+      copies.put(node, nodeCopy);
+      copy.nodes.add(nodeCopy);
+    }
+    // restore the tree structure, children keep their order
+    for (Map.Entry<SemanticNode, SemanticNode> entry : copies.entrySet()) {
+      for (SemanticNode child : entry.getKey().getChildren()) {
+        entry.getValue().appendChild(copies.get(child));
+      }
+    }
+    for (SemanticEdge edge : defineEdges) {
+      copy.defineEdges.add(
+          new SemanticEdge(
+              edge.getEdgeID(),
+              EdgeType.DEFINE,
+              copies.get(edge.getSource()),
+              copies.get(edge.getTarget())));
+    }
+
+    importEdges.forEach((node, names) -> copy.importEdges.put(copies.get(node), names));
+    extendEdges.forEach((node, names) -> copy.extendEdges.put(copies.get(node), names));
+    implementEdges.forEach((node, names) -> copy.implementEdges.put(copies.get(node), names));
+    declObjectEdges.forEach((node, names) -> copy.declObjectEdges.put(copies.get(node), names));
+    initObjectEdges.forEach((node, names) -> copy.initObjectEdges.put(copies.get(node), names));
+    readFieldEdges.forEach((node, refs) -> copy.readFieldEdges.put(copies.get(node), refs));
+    writeFieldEdges.forEach((node, refs) -> copy.writeFieldEdges.put(copies.get(node), refs));
+    methodCallExprs.forEach((node, refs) -> copy.methodCallExprs.put(copies.get(node), refs));
+    return copy;
+  }
+
+  /**
+   * Write the fragment to a stream, nodes are written with their tree structure, maps are written
+   * as entry lists because the hash of nodes is not available during deserialization
+   *
+   * @param out
+   * @throws IOException
+   */
+  void writeTo(ObjectOutputStream out) throws IOException {
+    out.writeObject(cuNode);
+    out.writeObject(cuQualifiedName);
+    out.writeObject(packageDeclNode);
+    out.writeObject(nodes);
+    out.writeObject(defineEdges);
+    out.writeInt(localNodeCount);
+    out.writeInt(localEdgeCount);
+    writeMap(out, importEdges);
+    writeMap(out, extendEdges);
+    writeMap(out, implementEdges);
+    writeMap(out, declObjectEdges);
+    writeMap(out, initObjectEdges);
+    writeMap(out, readFieldEdges);
+    writeMap(out, writeFieldEdges);
+    writeMap(out, methodCallExprs);
+  }
+
+  /**
+   * Read a fragment written by writeTo
+   *
+   * @param in
+   * @return
+   * @throws IOException
+   * @throws ClassNotFoundException
+   */
+  @SuppressWarnings("unchecked")
+  static GraphFragment readFrom(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    GraphFragment fragment = new GraphFragment();
+    fragment.cuNode = (CompilationUnitNode) in.readObject();
+    fragment.cuQualifiedName = (String) in.readObject();
+    fragment.packageDeclNode = (PackageDeclNode) in.readObject();
+    fragment.nodes = (List<SemanticNode>) in.readObject();
+    fragment.defineEdges = (List<SemanticEdge>) in.readObject();
+    fragment.localNodeCount = in.readInt();
+    fragment.localEdgeCount = in.readInt();
+    readMap(in, fragment.importEdges);
+    readMap(in, fragment.extendEdges);
+    readMap(in, fragment.implementEdges);
+    readMap(in, fragment.declObjectEdges);
+    readMap(in, fragment.initObjectEdges);
+    readMap(in, fragment.readFieldEdges);
+    readMap(in, fragment.writeFieldEdges);
+    readMap(in, fragment.methodCallExprs);
+    return fragment;
+  }
+
+  private static <V> void writeMap(ObjectOutputStream out, Map<SemanticNode, List<V>> map)
+      throws IOException {
+    out.writeInt(map.size());
+    for (Map.Entry<SemanticNode, List<V>> entry : map.entrySet()) {
+      out.writeObject(entry.getKey());
+      out.writeObject(new ArrayList<>(entry.getValue()));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <V> void readMap(ObjectInputStream in, Map<SemanticNode, List<V>> map)
+      throws IOException, ClassNotFoundException {
+    int size = in.readInt();
+    for (int i = 0; i < size; ++i) {
+      SemanticNode node = (SemanticNode) in.readObject();
+      map.put(node, (List<V>) in.readObject());
+    }
+  }
+
+  /**
+   * Get the next local node id
+   *
+   * @return
+   */
+  int nextNodeID() {
+    return localNodeCount++;
+  }
+
+  /**
+   * Get the next local edge id
+   *
+   * @return
+   */
+  int nextEdgeID() {
+    return localEdgeCount++;
+  }
+
+  /**
+   * Record a node created in this fragment, except the compilation unit and package nodes
+   *
+   * @param node
+   */
+  void addNode(SemanticNode node) {
+    nodes.add(node);
+  }
+
+  /**
+   * Record a DEFINE edge from a parent to a child node
+   *
+   * @param edge
+   */
+  void addDefineEdge(SemanticEdge edge) {
+    defineEdges.add(edge);
+  }
+}
@@ -4,13 +4,18 @@ import edu.pku.intellimerge.core.matcher.*;
 import edu.pku.intellimerge.model.SemanticEdge;
 import edu.pku.intellimerge.model.SemanticNode;
 import edu.pku.intellimerge.model.constant.NodeType;
+import edu.pku.intellimerge.model.mapping.Refactoring;
 import edu.pku.intellimerge.model.mapping.TwowayMatching;
+import edu.pku.intellimerge.util.BaseFeatureStore;
+import edu.pku.intellimerge.util.PipelineScheduler;
+import edu.pku.intellimerge.util.SignatureIndex;
+import edu.pku.intellimerge.util.SimilarityCache;
 import org.jgrapht.Graph;
 
 import java.util.*;
-import java.util.Map.Entry;
 import java.util.concurrent.Callable;
-import java.util.function.Function;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 public class GraphMatcher implements Callable<TwowayMatching> {
@@ -18,14 +23,44 @@ public class GraphMatcher implements Callable<TwowayMatching> {
 
   private Graph<SemanticNode, SemanticEdge> graph1; // old graph(base)
   private Graph<SemanticNode, SemanticEdge> graph2; // new graph(ours/theirs)
+  // features of the base graph, can be shared with another matcher with the same base
+  private BaseFeatureStore baseFeatures;
+  private SimilarityCache cache;
+  // pool to match in parallel, shared with other phases
+  private PipelineScheduler scheduler = PipelineScheduler.getDefault();
+  // match members by their enclosing types in parallel, before matching the rest together
+  private boolean partitioned = false;
 
   public GraphMatcher(
       Graph<SemanticNode, SemanticEdge> graph1, Graph<SemanticNode, SemanticEdge> graph2) {
+    this(graph1, graph2, new BaseFeatureStore(graph1));
+  }
+
+  public GraphMatcher(
+      Graph<SemanticNode, SemanticEdge> graph1,
+      Graph<SemanticNode, SemanticEdge> graph2,
+      BaseFeatureStore baseFeatures) {
     this.graph1 = graph1;
     this.graph2 = graph2;
+    this.baseFeatures = baseFeatures;
+    this.cache = baseFeatures.getCache();
     this.matching = new TwowayMatching();
   }
 
+  public void setScheduler(PipelineScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Match unmatched methods, fields and constructors within each pair of matched types first, in
+   * parallel, then match the rest across types (for members moved across types)
+   *
+   * @param partitioned
+   */
+  public void setPartitioned(boolean partitioned) {
+    this.partitioned = partitioned;
+  }
+
   /**
    * Map all node between 2 graphs, simply top-down by signature Assumption: nodes with the same
    * signature are matched
@@ -39,35 +74,26 @@ public class GraphMatcher implements Callable<TwowayMatching> {
     nodeSet2.stream()
         .filter(node -> node.getNodeType().equals(NodeType.COMPILATION_UNIT))
         .collect(Collectors.toSet());
-    Map<Integer, SemanticNode> map1 =
-        nodeSet1.stream()
-            .filter(SemanticNode::needToMerge)
-            .collect(
-                Collectors.toMap(
-                    SemanticNode::hashCodeSignature,
-                    Function.identity(),
-                    (o, n) -> o,
-                    HashMap::new));
-    Map<Integer, SemanticNode> map2 =
-        nodeSet2.stream()
-            .filter(SemanticNode::needToMerge)
-            .collect(
-                Collectors.toMap(
-                    SemanticNode::hashCodeSignature,
-                    Function.identity(),
-                    (o, n) -> o,
-                    HashMap::new));
-    for (Entry<Integer, SemanticNode> entry : map1.entrySet()) {
-      if (map2.containsKey(entry.getKey())) {
+    // join nodes by the fingerprints of signatures, rechecked by the signatures
+    List<SemanticNode> nodes2 = new ArrayList<>();
+    SignatureIndex index2 =
+        SignatureIndex.build(
+            nodeSet2.stream().filter(SemanticNode::needToMerge).collect(Collectors.toList()),
+            nodes2);
+    Set<SemanticNode> matchedNodes2 = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (SemanticNode node1 : baseFeatures.getSignatureNodes()) {
+      SemanticNode node2 = index2.remove(node1);
+      if (node2 != null) {
         // add the matched nodes into the matching relationships
-        matching.one2oneMatchings.put(entry.getValue(), map2.get(entry.getKey()));
-        // remove the mapped node from other
-        map2.remove(entry.getKey());
+        matching.one2oneMatchings.put(node1, node2);
+        matchedNodes2.add(node2);
       } else {
-        matching.addUnmatchedNodes(entry.getValue(), true);
+        matching.addUnmatchedNodes(node1, true);
       }
     }
-    map2.entrySet().forEach(entry -> matching.addUnmatchedNodes(entry.getValue(), false));
+    nodes2.stream()
+        .filter(node -> !matchedNodes2.contains(node))
+        .forEach(node -> matching.addUnmatchedNodes(node, false));
   }
 
   /** Bottom-up match unmatched nodes in the last step, considering some kinds of refactorings */
@@ -89,10 +115,15 @@ public class GraphMatcher implements Callable<TwowayMatching> {
     List<SemanticNode> unmatchedTypes2 =
         matching.unmatchedNodes2.getOrDefault(NodeType.CLASS, new ArrayList<>());
     if (!unmatchedTypes1.isEmpty() && !unmatchedTypes2.isEmpty()) {
-      TypeDeclMatcher typeDeclMatcher = new TypeDeclMatcher();
+      TypeDeclMatcher typeDeclMatcher = new TypeDeclMatcher(cache);
+      typeDeclMatcher.setScheduler(scheduler);
       typeDeclMatcher.matchClass(matching, unmatchedTypes1, unmatchedTypes2);
     }
 
+    if (partitioned) {
+      matchMembersByTypes();
+    }
+
     // Methods
     // if only there are unmatched nodes, try to match
     List<SemanticNode> unmatchedMethods1 =
@@ -100,7 +131,8 @@ public class GraphMatcher implements Callable<TwowayMatching> {
     List<SemanticNode> unmatchedMethods2 =
         matching.unmatchedNodes2.getOrDefault(NodeType.METHOD, new ArrayList<>());
     // TODO avoid subjection
-    MethodDeclMatcher methodDeclMatcher = new MethodDeclMatcher();
+    MethodDeclMatcher methodDeclMatcher = new MethodDeclMatcher(cache);
+    methodDeclMatcher.setScheduler(scheduler);
     if (!unmatchedMethods1.isEmpty() && !unmatchedMethods2.isEmpty()) {
       methodDeclMatcher.matchMethods(matching, unmatchedMethods1, unmatchedMethods2);
     }
@@ -117,7 +149,8 @@ public class GraphMatcher implements Callable<TwowayMatching> {
     List<SemanticNode> unmatchedFields2 =
         matching.unmatchedNodes2.getOrDefault(NodeType.FIELD, new ArrayList<>());
     if (!unmatchedFields1.isEmpty() && !unmatchedFields2.isEmpty()) {
-      FieldDeclMatcher fieldDeclMatcher = new FieldDeclMatcher();
+      FieldDeclMatcher fieldDeclMatcher = new FieldDeclMatcher(cache);
+      fieldDeclMatcher.setScheduler(scheduler);
       fieldDeclMatcher.matchFields(matching, unmatchedFields1, unmatchedFields2);
     }
 
@@ -127,13 +160,115 @@ public class GraphMatcher implements Callable<TwowayMatching> {
     List<SemanticNode> unmatchedConstructors2 =
         matching.unmatchedNodes2.getOrDefault(NodeType.CONSTRUCTOR, new ArrayList<>());
     if (!unmatchedConstructors1.isEmpty() && !unmatchedConstructors2.isEmpty()) {
-      ConstructorDeclMatcher constructorDeclMatcher = new ConstructorDeclMatcher();
+      ConstructorDeclMatcher constructorDeclMatcher = new ConstructorDeclMatcher(cache);
+      constructorDeclMatcher.setScheduler(scheduler);
       constructorDeclMatcher.matchConstructors(
           matching, unmatchedConstructors1, unmatchedConstructors2);
     }
     matching.getOne2OneRefactoring();
   }
 
+  /**
+   * Match unmatched members of each type with unmatched members of its matched type, each pair of
+   * types as a smaller bipartite in parallel, and remove the matched from the unmatched
+   */
+  private void matchMembersByTypes() {
+    // matched types in graph2 to types in graph1, including renamed ones
+    Map<SemanticNode, SemanticNode> matchedTypes =
+        new HashMap<>(matching.one2oneMatchings.inverse());
+    for (Refactoring refactoring : matching.refactorings) {
+      if (refactoring.isOneToOne()) {
+        matchedTypes.put(refactoring.getAfter(), refactoring.getBefore());
+      }
+    }
+    NodeType[] memberTypes = {NodeType.METHOD, NodeType.FIELD, NodeType.CONSTRUCTOR};
+    // partitions by the enclosing type in graph1, in the order of unmatched nodes
+    Map<SemanticNode, TwowayMatching> partitions = new LinkedHashMap<>();
+    for (NodeType nodeType : memberTypes) {
+      for (SemanticNode node : matching.unmatchedNodes1.getOrDefault(nodeType, new ArrayList<>())) {
+        partitions
+            .computeIfAbsent(node.getParent(), parent -> new TwowayMatching())
+            .addUnmatchedNodes(node, true);
+      }
+    }
+    for (NodeType nodeType : memberTypes) {
+      for (SemanticNode node : matching.unmatchedNodes2.getOrDefault(nodeType, new ArrayList<>())) {
+        SemanticNode parent = matchedTypes.get(node.getParent());
+        if (parent != null && partitions.containsKey(parent)) {
+          partitions.get(parent).addUnmatchedNodes(node, false);
+        }
+      }
+    }
+
+    List<Future<TwowayMatching>> tasks = new ArrayList<>();
+    for (TwowayMatching partition : partitions.values()) {
+      if (!partition.unmatchedNodes2.isEmpty()) {
+        tasks.add(scheduler.submit(() -> matchMembers(partition)));
+      }
+    }
+    // wait for all partitions before failing, so that no task is left running on the matching
+    List<TwowayMatching> results = new ArrayList<>();
+    Exception failure = null;
+    for (Future<TwowayMatching> task : tasks) {
+      try {
+        results.add(task.get());
+      } catch (InterruptedException | ExecutionException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    if (failure != null) {
+      throw PipelineScheduler.propagate(failure);
+    }
+    for (TwowayMatching result : results) {
+      // members matched in the partition are no longer unmatched
+      for (Refactoring refactoring : result.refactorings) {
+        matching.refactorings.add(refactoring);
+        matching.unmatchedNodes1.get(refactoring.getNodeType()).remove(refactoring.getBefore());
+        matching.unmatchedNodes2.get(refactoring.getNodeType()).remove(refactoring.getAfter());
+      }
+    }
+  }
+
+  /**
+   * Match the unmatched methods, fields and constructors in the partition
+   *
+   * @param partition
+   * @return
+   */
+  private TwowayMatching matchMembers(TwowayMatching partition) {
+    List<SemanticNode> unmatchedMethods1 =
+        partition.unmatchedNodes1.getOrDefault(NodeType.METHOD, new ArrayList<>());
+    List<SemanticNode> unmatchedMethods2 =
+        partition.unmatchedNodes2.getOrDefault(NodeType.METHOD, new ArrayList<>());
+    if (!unmatchedMethods1.isEmpty() && !unmatchedMethods2.isEmpty()) {
+      MethodDeclMatcher methodDeclMatcher = new MethodDeclMatcher(cache);
+      methodDeclMatcher.setScheduler(scheduler);
+      methodDeclMatcher.matchMethods(partition, unmatchedMethods1, unmatchedMethods2);
+    }
+    List<SemanticNode> unmatchedFields1 =
+        partition.unmatchedNodes1.getOrDefault(NodeType.FIELD, new ArrayList<>());
+    List<SemanticNode> unmatchedFields2 =
+        partition.unmatchedNodes2.getOrDefault(NodeType.FIELD, new ArrayList<>());
+    if (!unmatchedFields1.isEmpty() && !unmatchedFields2.isEmpty()) {
+      FieldDeclMatcher fieldDeclMatcher = new FieldDeclMatcher(cache);
+      fieldDeclMatcher.setScheduler(scheduler);
+      fieldDeclMatcher.matchFields(partition, unmatchedFields1, unmatchedFields2);
+    }
+    List<SemanticNode> unmatchedConstructors1 =
+        partition.unmatchedNodes1.getOrDefault(NodeType.CONSTRUCTOR, new ArrayList<>());
+    List<SemanticNode> unmatchedConstructors2 =
+        partition.unmatchedNodes2.getOrDefault(NodeType.CONSTRUCTOR, new ArrayList<>());
+    if (!unmatchedConstructors1.isEmpty() && !unmatchedConstructors2.isEmpty()) {
+      ConstructorDeclMatcher constructorDeclMatcher = new ConstructorDeclMatcher(cache);
+      constructorDeclMatcher.setScheduler(scheduler);
+      constructorDeclMatcher.matchConstructors(
+          partition, unmatchedConstructors1, unmatchedConstructors2);
+    }
+    return partition;
+  }
+
   /**
    * Sort the node list in the reverse hierarchy order, i.e. bottom up in AST
    *
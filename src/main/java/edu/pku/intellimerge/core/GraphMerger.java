@@ -5,30 +5,22 @@ import edu.pku.intellimerge.io.Graph2CodePrinter;
 import edu.pku.intellimerge.model.SemanticEdge;
 import edu.pku.intellimerge.model.SemanticNode;
 import edu.pku.intellimerge.model.constant.NodeType;
-import edu.pku.intellimerge.model.constant.Side;
 import edu.pku.intellimerge.model.mapping.Refactoring;
 import edu.pku.intellimerge.model.mapping.ThreewayMapping;
 import edu.pku.intellimerge.model.mapping.TwowayMatching;
 import edu.pku.intellimerge.model.node.*;
+import edu.pku.intellimerge.util.BaseFeatureStore;
+import edu.pku.intellimerge.util.PipelineScheduler;
+import edu.pku.intellimerge.util.TextualMerger;
 import edu.pku.intellimerge.util.Utils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
-import org.eclipse.jgit.diff.RawText;
-import org.eclipse.jgit.diff.RawTextComparator;
-import org.eclipse.jgit.lib.Constants;
-import org.eclipse.jgit.merge.MergeAlgorithm;
-import org.eclipse.jgit.merge.MergeFormatter;
-import org.eclipse.jgit.merge.MergeResult;
 import org.jgrapht.Graph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
@@ -42,6 +34,15 @@ public class GraphMerger {
   private Graph<SemanticNode, SemanticEdge> oursGraph;
   private Graph<SemanticNode, SemanticEdge> baseGraph;
   private Graph<SemanticNode, SemanticEdge> theirsGraph;
+  // pool to match graphs in, shared with other phases
+  private PipelineScheduler scheduler = PipelineScheduler.getDefault();
+  // match members within matched types in parallel before matching across types
+  private boolean partitionedMatching = false;
+  // merge and print CUs in parallel
+  private boolean parallelMerge = false;
+  // nodes added in ours/theirs by their parents, indexed before merging
+  private Map<SemanticNode, List<SemanticNode>> addedNodesInOurs = new HashMap<>();
+  private Map<SemanticNode, List<SemanticNode>> addedNodesInTheirs = new HashMap<>();
 
   public GraphMerger(
       String resultDir,
@@ -55,20 +56,36 @@ public class GraphMerger {
     this.mapping = new ArrayList<>();
   }
 
+  public void setScheduler(PipelineScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  public void setPartitionedMatching(boolean partitionedMatching) {
+    this.partitionedMatching = partitionedMatching;
+  }
+
+  public void setParallelMerge(boolean parallelMerge) {
+    this.parallelMerge = parallelMerge;
+  }
+
   /** Threeway map the CUs that need to merge */
   public Pair<List<Refactoring>, List<Refactoring>> threewayMap() {
     // two way matching to get three way mapping
-    GraphMatcher b2oMatcher = new GraphMatcher(baseGraph, oursGraph);
-    GraphMatcher b2tMatcher = new GraphMatcher(baseGraph, theirsGraph);
+    // features of base nodes are computed once for both matchers
+    BaseFeatureStore baseFeatures = new BaseFeatureStore(baseGraph);
+    GraphMatcher b2oMatcher = new GraphMatcher(baseGraph, oursGraph, baseFeatures);
+    GraphMatcher b2tMatcher = new GraphMatcher(baseGraph, theirsGraph, baseFeatures);
+    for (GraphMatcher matcher : Arrays.asList(b2oMatcher, b2tMatcher)) {
+      matcher.setScheduler(scheduler);
+      matcher.setPartitioned(partitionedMatching);
+    }
     try {
-      ExecutorService executorService = Executors.newFixedThreadPool(2);
-      Future<TwowayMatching> task1 = executorService.submit(b2oMatcher);
-      Future<TwowayMatching> task2 = executorService.submit(b2tMatcher);
+      Future<TwowayMatching> task1 = scheduler.submit(b2oMatcher);
+      Future<TwowayMatching> task2 = scheduler.submit(b2tMatcher);
 
       b2oMatching = task1.get();
       b2tMatching = task2.get();
 
-      executorService.shutdown();
       //    b2oMatcher.topDownMatch();
       //    b2oMatcher.bottomUpMatch();
       //    b2tMatcher.topDownMatch();
@@ -113,25 +130,66 @@ public class GraphMerger {
   public List<String> threewayMerge() {
     // bottom up merge children of the needToMerge COMPILATION_UNIT
     List<String> mergedFilePaths = new ArrayList<>();
-    for (ThreewayMapping mapping : mapping) {
-      if (mapping.baseNode.isPresent()) {
-        // merge the COMPILATION_UNIT by merging its content
-        //        SemanticNode mergedCU = mergeSingleNode(mapping.baseNode.get());
-        SemanticNode mergedCU = mergeSingleNode(mapping.baseNode.get());
-        // merge the package declaration and imports
-        CompilationUnitNode mergedPackageAndImports = mergeCUHeader(mapping.baseNode.get());
-        if (mergedCU != null && mergedPackageAndImports != null) {
-          // save the merged result to file
-          String resultFilePath =
-              Graph2CodePrinter.printCU(
-                  mergedCU, mergedPackageAndImports, Utils.formatPathSeparator(resultDir));
-          mergedFilePaths.add(resultFilePath);
+    addedNodesInOurs = indexAddedNodes(b2oMatching);
+    addedNodesInTheirs = indexAddedNodes(b2tMatching);
+    if (parallelMerge) {
+      // CUs are independent after matching, collect the paths in the order of the mapping
+      List<Future<String>> tasks = new ArrayList<>();
+      for (ThreewayMapping mapping : mapping) {
+        if (mapping.baseNode.isPresent()) {
+          tasks.add(scheduler.submit(() -> mergeCU(mapping.baseNode.get())));
+        }
+      }
+      // wait for all CUs before failing, so that no task is left printing to the result dir
+      Exception failure = null;
+      for (Future<String> task : tasks) {
+        try {
+          String resultFilePath = task.get();
+          if (resultFilePath != null) {
+            mergedFilePaths.add(resultFilePath);
+          }
+        } catch (InterruptedException | ExecutionException e) {
+          if (failure == null) {
+            failure = e;
+          }
+        }
+      }
+      if (failure != null) {
+        throw PipelineScheduler.propagate(failure);
+      }
+    } else {
+      for (ThreewayMapping mapping : mapping) {
+        if (mapping.baseNode.isPresent()) {
+          String resultFilePath = mergeCU(mapping.baseNode.get());
+          if (resultFilePath != null) {
+            mergedFilePaths.add(resultFilePath);
+          }
         }
       }
     }
     return mergedFilePaths;
   }
 
+  /**
+   * Merge the CU and print it to file, without changing nodes of the graphs, so that CUs can be
+   * merged in parallel
+   *
+   * @param node the CU in base
+   * @return the path of the merged file, null if the CU is deleted
+   */
+  private String mergeCU(SemanticNode node) {
+    // merge the COMPILATION_UNIT by merging its content
+    SemanticNode mergedCU = mergeSingleNode(node);
+    // merge the package declaration and imports
+    CompilationUnitNode mergedPackageAndImports = mergeCUHeader(node);
+    if (mergedCU != null && mergedPackageAndImports != null) {
+      // save the merged result to file
+      return Graph2CodePrinter.printCU(
+          mergedCU, mergedPackageAndImports, Utils.formatPathSeparator(resultDir));
+    }
+    return null;
+  }
+
   /**
    * Merge the header part of COMPILATION_UNIT, including comment, package and imports
    *
@@ -140,7 +198,8 @@ public class GraphMerger {
    */
   private CompilationUnitNode mergeCUHeader(SemanticNode node) {
     if (node instanceof CompilationUnitNode) {
-      CompilationUnitNode mergedCU = (CompilationUnitNode) node;
+      // merge into a copy, the base CU is read by the merging of its content
+      CompilationUnitNode mergedCU = (CompilationUnitNode) node.copy();
       SemanticNode oursNode = b2oMatching.one2oneMatchings.getOrDefault(node, null);
       SemanticNode theirsNode = b2tMatching.one2oneMatchings.getOrDefault(node, null);
       if (oursNode != null && theirsNode != null) {
@@ -244,6 +303,15 @@ public class GraphMerger {
     SemanticNode oursNode = b2oMatching.one2oneMatchings.getOrDefault(node, null);
     SemanticNode theirsNode = b2tMatching.one2oneMatchings.getOrDefault(node, null);
     if (oursNode != null && theirsNode != null) {
+      // the subtree changed in at most one side, or in the same way in both sides
+      boolean unchangedInOurs = isSameSubtree(oursNode, node);
+      if ((unchangedInOurs
+              || isSameSubtree(theirsNode, node)
+              || isSameSubtree(oursNode, theirsNode))
+          && isClosedSubtree(node, oursNode, b2oMatching)
+          && isClosedSubtree(node, theirsNode, b2tMatching)) {
+        return shareSubtree(unchangedInOurs ? theirsNode : oursNode);
+      }
       // for orphan comment, merge if matched
       if (node instanceof OrphanCommentNode) {
         mergedNode.setOriginalSignature(
@@ -342,8 +410,8 @@ public class GraphMerger {
         for (SemanticNode child : children) {
           SemanticNode childInBase = inversedMatching.getOrDefault(child, null);
           if (childInBase == null) {
-            // insert nodes added in theirs
-            mergedNonTerminal.appendChild(child);
+            // insert nodes added in theirs, shared with the theirs graph so keep its parent
+            mergedNonTerminal.getChildren().add(child);
           } else {
             SemanticNode mergedChild = mergeSingleNode(childInBase);
             if (mergedChild != null) {
@@ -355,7 +423,8 @@ public class GraphMerger {
         // insert nodes added in ours
         List<SemanticNode> addedOurs =
             removeDuplicates(
-                filterAddedNodes(node, b2oMatching), filterAddedNodes(node, b2tMatching));
+                filterAddedNodes(node, b2oMatching, addedNodesInOurs),
+                filterAddedNodes(node, b2tMatching, addedNodesInTheirs));
         mergeUnmatchedNodes(mergedNonTerminal, addedOurs);
 
         return mergedNonTerminal;
@@ -367,36 +436,162 @@ public class GraphMerger {
   }
 
   /**
-   * Get the added node under the composite node
+   * Whether the two subtrees are the same, the content is compared only if the subtree hashes are
+   * equal, in case two different subtrees have the same hash
+   *
+   * @param node1
+   * @param node2
+   * @return
+   */
+  private boolean isSameSubtree(SemanticNode node1, SemanticNode node2) {
+    return node1.hasSameSubtree(node2) && hasSameContent(node1, node2);
+  }
+
+  /**
+   * Compare what is printed for the two subtrees, i.e. what their subtree hashes are computed from
+   *
+   * @param node1
+   * @param node2
+   * @return
+   */
+  private boolean hasSameContent(SemanticNode node1, SemanticNode node2) {
+    if (node1.getClass() != node2.getClass()
+        || node1.getNodeType() != node2.getNodeType()
+        || node1.followingEOL != node2.followingEOL
+        || !node1
+            .getRange()
+            .map(range -> range.begin.column)
+            .equals(node2.getRange().map(range -> range.begin.column))
+        || !Objects.equals(node1.getOriginalSignature(), node2.getOriginalSignature())
+        || !Objects.equals(node1.getComment(), node2.getComment())
+        || !Objects.equals(node1.getAnnotations(), node2.getAnnotations())
+        || !Objects.equals(node1.getModifiers(), node2.getModifiers())
+        || node1.getChildren().size() != node2.getChildren().size()) {
+      return false;
+    }
+    if (node1 instanceof TerminalNode) {
+      if (!Objects.equals(((TerminalNode) node1).getBody(), ((TerminalNode) node2).getBody())) {
+        return false;
+      }
+    } else if (node1 instanceof CompositeNode) {
+      CompositeNode composite1 = (CompositeNode) node1;
+      CompositeNode composite2 = (CompositeNode) node2;
+      if (!Objects.equals(composite1.curlyBracePrefix, composite2.curlyBracePrefix)
+          || composite1.beforeFirstChildEOL != composite2.beforeFirstChildEOL) {
+        return false;
+      }
+    }
+    for (int i = 0; i < node1.getChildren().size(); ++i) {
+      if (!hasSameContent(node1.getChildren().get(i), node2.getChildren().get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Whether the subtree and the nodes in it are not moved in the side, so that the subtree can be
+   * merged without the rest of the graph
+   *
+   * @param node the root in base
+   * @param sideNode the root in the side
+   * @param matching
+   * @return
+   */
+  private boolean isClosedSubtree(
+      SemanticNode node, SemanticNode sideNode, TwowayMatching matching) {
+    // the root itself is not moved either
+    if (!(node instanceof CompilationUnitNode)
+        && matching.one2oneMatchings.get(node.getParent()) != sideNode.getParent()) {
+      return false;
+    }
+    Set<SemanticNode> sideNodes = Collections.newSetFromMap(new IdentityHashMap<>());
+    Deque<SemanticNode> stack = new ArrayDeque<>(sideNode.getChildren());
+    while (!stack.isEmpty()) {
+      SemanticNode sideChild = stack.pop();
+      sideNodes.add(sideChild);
+      SemanticNode baseChild = matching.one2oneMatchings.inverse().get(sideChild);
+      if (baseChild != null && !isDescendant(baseChild, node)) {
+        return false;
+      }
+      stack.addAll(sideChild.getChildren());
+    }
+    stack.addAll(node.getChildren());
+    while (!stack.isEmpty()) {
+      SemanticNode baseChild = stack.pop();
+      SemanticNode sideChild = matching.one2oneMatchings.get(baseChild);
+      if (sideChild != null && !sideNodes.contains(sideChild)) {
+        return false;
+      }
+      stack.addAll(baseChild.getChildren());
+    }
+    return true;
+  }
+
+  private boolean isDescendant(SemanticNode node, SemanticNode ancestor) {
+    for (SemanticNode parent = node.getParent(); parent != null; parent = parent.getParent()) {
+      if (parent == ancestor) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Take the subtree of one side as the merged one, only the root is cloned so that the nodes of
+   * the graph are not changed when the root is put into the merged tree
    *
    * @param node
+   * @return
+   */
+  private SemanticNode shareSubtree(SemanticNode node) {
+    SemanticNode mergedNode = node.shallowClone();
+    if (node instanceof CompositeNode) {
+      mergedNode.getChildren().addAll(node.getChildren());
+    }
+    return mergedNode;
+  }
+
+  /**
+   * Group the added nodes by their parents, each group sorted by node id
+   *
    * @param matching
    * @return
    */
-  private List<SemanticNode> filterAddedNodes(SemanticNode node, TwowayMatching matching) {
-    Map<NodeType, List<SemanticNode>> unmatchedNodes = matching.unmatchedNodes2;
+  private Map<SemanticNode, List<SemanticNode>> indexAddedNodes(TwowayMatching matching) {
+    Map<SemanticNode, List<SemanticNode>> addedNodes = new HashMap<>();
     // for each type of newly added nodes
-    List<SemanticNode> addedNodes = new ArrayList<>();
-    List<SemanticNode> results = new ArrayList<>();
-    for (Map.Entry<NodeType, List<SemanticNode>> entry : unmatchedNodes.entrySet()) {
-      addedNodes.addAll(entry.getValue());
-    }
-    SemanticNode matchedParentNode = matching.one2oneMatchings.getOrDefault(node, null);
-    if (matchedParentNode != null) {
-      for (SemanticNode newlyAdded : addedNodes) {
+    for (List<SemanticNode> nodes : matching.unmatchedNodes2.values()) {
+      for (SemanticNode newlyAdded : nodes) {
         SemanticNode parent = newlyAdded.getParent();
-        if (parent != null && parent.equals(matchedParentNode)) {
-          results.add(newlyAdded);
+        if (parent != null) {
+          addedNodes.computeIfAbsent(parent, key -> new ArrayList<>()).add(newlyAdded);
         }
       }
     }
+    for (List<SemanticNode> children : addedNodes.values()) {
+      children.sort(Comparator.comparing(SemanticNode::getNodeID));
+    }
+    return addedNodes;
+  }
 
-    results =
-        new ArrayList(
-            results.stream()
-                .sorted(Comparator.comparing(SemanticNode::getNodeID))
-                .collect(Collectors.toList()));
-    return results;
+  /**
+   * Get the added node under the composite node
+   *
+   * @param node
+   * @param matching
+   * @param addedNodes added nodes of the matching indexed by parent
+   * @return
+   */
+  private List<SemanticNode> filterAddedNodes(
+      SemanticNode node,
+      TwowayMatching matching,
+      Map<SemanticNode, List<SemanticNode>> addedNodes) {
+    SemanticNode matchedParentNode = matching.one2oneMatchings.getOrDefault(node, null);
+    if (matchedParentNode == null) {
+      return new ArrayList<>();
+    }
+    return new ArrayList<>(addedNodes.getOrDefault(matchedParentNode, Collections.emptyList()));
   }
 
   /**
@@ -407,17 +602,34 @@ public class GraphMerger {
    */
   private List<SemanticNode> removeDuplicates(
       List<SemanticNode> addedOurs, List<SemanticNode> addedTheirs) {
-
-    List<SemanticNode> nodes2Copy = new ArrayList<>(addedOurs);
+    if (addedOurs.isEmpty() || addedTheirs.isEmpty()) {
+      return addedOurs;
+    }
+    Map<String, Integer> signaturesTheirs = new HashMap<>();
     for (SemanticNode n1 : addedTheirs) {
-      for (SemanticNode n2 : nodes2Copy) {
-        if (n1.getOriginalSignature().equals(n2.getOriginalSignature())) {
-          // if the signature is duplicate, remove one of them
-          addedOurs.remove(n2);
-        }
+      signaturesTheirs.merge(n1.getOriginalSignature(), 1, Integer::sum);
+    }
+    // each duplicate in theirs removes the first equal node in ours once
+    Map<SemanticNode, Integer> removals = new HashMap<>();
+    for (SemanticNode n2 : addedOurs) {
+      Integer count = signaturesTheirs.get(n2.getOriginalSignature());
+      if (count != null) {
+        removals.merge(n2, count, Integer::sum);
       }
     }
-    return addedOurs;
+    if (removals.isEmpty()) {
+      return addedOurs;
+    }
+    List<SemanticNode> results = new ArrayList<>();
+    for (SemanticNode n2 : addedOurs) {
+      Integer count = removals.get(n2);
+      if (count != null && count > 0) {
+        removals.put(n2, count - 1);
+      } else {
+        results.add(n2);
+      }
+    }
+    return results;
   }
 
   /**
@@ -520,23 +732,22 @@ public class GraphMerger {
    */
   private void insertBetweenNeighbors(
       CompositeNode parent, Triple<SemanticNode, SemanticNode, SemanticNode> triple) {
-    boolean foundNeighor = false;
+    // the added node is shared with the ours graph, so insert it without setting its parent
+    List<SemanticNode> children = parent.getChildren();
+    int position = -1;
     if (triple.getLeft() != null) {
-      int position = parent.getChildPosition(triple.getLeft());
+      position = parent.getChildPosition(triple.getLeft());
       if (position != -1) {
-        parent.insertChild(triple.getMiddle(), position + 1);
-        foundNeighor = true;
+        position++;
       }
     }
-    if (!foundNeighor && triple.getRight() != null) {
-      int position = parent.getChildPosition(triple.getRight());
-      if (position != -1) {
-        parent.insertChild(triple.getMiddle(), position);
-        foundNeighor = true;
-      }
+    if (position == -1 && triple.getRight() != null) {
+      position = parent.getChildPosition(triple.getRight());
     }
-    if (!foundNeighor) {
-      parent.appendChild(triple.getMiddle());
+    if (position == -1) {
+      children.add(triple.getMiddle());
+    } else {
+      children.add(position, triple.getMiddle());
     }
   }
   /**
@@ -573,7 +784,7 @@ public class GraphMerger {
   }
 
   /**
-   * Merge content string textually with jGit
+   * Merge content string textually
    *
    * @param leftContent
    * @param baseContent
@@ -581,39 +792,7 @@ public class GraphMerger {
    * @return
    */
   private String mergeTextually(String leftContent, String baseContent, String rightContent) {
-    String textualMergeResult = null;
-    // jgit has bug with single side change
-    if (leftContent.equals(baseContent)) {
-      return rightContent;
-    }
-    if (rightContent.equals(baseContent)) {
-      return leftContent;
-    }
-    try {
-      // TODO merge with git-merge for diff3 conflict style
-      RawTextComparator textComparator = RawTextComparator.WS_IGNORE_ALL; //  ignoreWhiteSpaces
-      @SuppressWarnings("rawtypes")
-      MergeResult mergeResult =
-          new MergeAlgorithm()
-              .merge(
-                  textComparator,
-                  new RawText(Constants.encode(baseContent)),
-                  new RawText(Constants.encode(leftContent)),
-                  new RawText(Constants.encode(rightContent)));
-      ByteArrayOutputStream output = new ByteArrayOutputStream();
-      (new MergeFormatter())
-          .formatMerge(
-              output,
-              mergeResult,
-              Side.BASE.asString(),
-              Side.OURS.asString(),
-              Side.THEIRS.asString(),
-              StandardCharsets.UTF_8);
-      textualMergeResult = new String(output.toByteArray(), StandardCharsets.UTF_8);
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
-    return textualMergeResult;
+    return TextualMerger.merge(leftContent, baseContent, rightContent);
   }
 
   /**
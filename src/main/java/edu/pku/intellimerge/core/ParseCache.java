@@ -0,0 +1,129 @@
+package edu.pku.intellimerge.core;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectInserter;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Fragments built from source files, keyed by the git blob id of the file content, to be shared by
+ * the graph builders of all sides in one merge scenario
+ *
+ * <p>Most files are identical in two or three sides, so they are only parsed once, and each side
+ * gets a copy of the cached fragment. If a fragment store is given, fragments missed in memory are
+ * loaded from disk before parsing, and newly built fragments are saved to it.
+ */
+public class ParseCache {
+  private Map<String, CompletableFuture<GraphFragment>> fragments = new ConcurrentHashMap<>();
+  private FragmentStore fragmentStore;
+  private AtomicInteger hitCount = new AtomicInteger();
+  private AtomicInteger diskHitCount = new AtomicInteger();
+  private AtomicInteger missCount = new AtomicInteger();
+
+  public ParseCache() {}
+
+  /** @param fragmentStore persistent store shared across merge scenarios, null to disable */
+  public ParseCache(FragmentStore fragmentStore) {
+    this.fragmentStore = fragmentStore;
+  }
+
+  /**
+   * Compute the git blob id of the file content
+   *
+   * @param content
+   * @return
+   */
+  public static String blobId(byte[] content) {
+    return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, content).name();
+  }
+
+  /**
+   * Get the cached fragment of the blob, or build and cache it if absent, the blob is only built
+   * once even if requested by several sides at the same time
+   *
+   * <p>The fragment is built outside the map by the first requester, others wait for its future,
+   * so that building one blob does not block requests of other blobs.
+   *
+   * @param blobId
+   * @param builder
+   * @return null if the fragment cannot be built
+   */
+  GraphFragment get(String blobId, Supplier<GraphFragment> builder) {
+    CompletableFuture<GraphFragment> future = fragments.get(blobId);
+    if (future == null) {
+      CompletableFuture<GraphFragment> newFuture = new CompletableFuture<>();
+      future = fragments.putIfAbsent(blobId, newFuture);
+      if (future == null) {
+        try {
+          GraphFragment fragment = load(blobId, builder);
+          newFuture.complete(fragment);
+          return fragment;
+        } catch (RuntimeException | Error e) {
+          newFuture.completeExceptionally(e);
+          throw e;
+        }
+      }
+    }
+    hitCount.incrementAndGet();
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      // rethrow the failure of the requester that built it
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw (RuntimeException) e.getCause();
+    }
+  }
+
+  /**
+   * Load the fragment from the fragment store, or build it and save it to the store
+   *
+   * @param blobId
+   * @param builder
+   * @return
+   */
+  private GraphFragment load(String blobId, Supplier<GraphFragment> builder) {
+    if (fragmentStore != null) {
+      GraphFragment fragment = fragmentStore.load(blobId);
+      if (fragment != null) {
+        diskHitCount.incrementAndGet();
+        return fragment;
+      }
+    }
+    missCount.incrementAndGet();
+    GraphFragment fragment = builder.get();
+    if (fragmentStore != null && fragment != null) {
+      fragmentStore.save(blobId, fragment);
+    }
+    return fragment;
+  }
+
+  public int getHitCount() {
+    return hitCount.get();
+  }
+
+  public int getDiskHitCount() {
+    return diskHitCount.get();
+  }
+
+  public int getMissCount() {
+    return missCount.get();
+  }
+
+  @Override
+  public String toString() {
+    return "Parse cache: ("
+        + hitCount.get()
+        + ") hits, ("
+        + diskHitCount.get()
+        + ") disk hits, ("
+        + missCount.get()
+        + ") misses.";
+  }
+}
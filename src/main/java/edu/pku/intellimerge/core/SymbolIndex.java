@@ -0,0 +1,80 @@
+package edu.pku.intellimerge.core;
+
+import edu.pku.intellimerge.model.SemanticNode;
+import edu.pku.intellimerge.model.constant.NodeType;
+import edu.pku.intellimerge.model.node.FieldDeclNode;
+import edu.pku.intellimerge.model.node.MethodDeclNode;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hash index of the nodes in one graph, filled as vertices are added, to resolve edges by symbol
+ * without scanning the vertex set
+ *
+ * <p>For every key, the first indexed node is kept, which is the same one that a scan over the
+ * (insertion-ordered) vertex set would find first.
+ */
+public class SymbolIndex {
+  // node type -> qualified name -> node
+  private Map<NodeType, Map<String, SemanticNode>> qualifiedNameIndex =
+      new EnumMap<>(NodeType.class);
+  // method name -> number of parameters -> method
+  private Map<String, Map<Integer, SemanticNode>> methodIndex = new HashMap<>();
+  // field name -> field
+  private Map<String, SemanticNode> fieldIndex = new HashMap<>();
+
+  /**
+   * Index a node that has just been added into the graph
+   *
+   * @param node
+   */
+  public void index(SemanticNode node) {
+    qualifiedNameIndex
+        .computeIfAbsent(node.getNodeType(), type -> new HashMap<>())
+        .putIfAbsent(node.getQualifiedName(), node);
+    if (node.getNodeType().equals(NodeType.METHOD)) {
+      MethodDeclNode method = (MethodDeclNode) node;
+      methodIndex
+          .computeIfAbsent(method.getMethodName(), name -> new HashMap<>())
+          .putIfAbsent(method.getParameterNames().size(), node);
+    } else if (node.getNodeType().equals(NodeType.FIELD)) {
+      fieldIndex.putIfAbsent(((FieldDeclNode) node).getFieldName(), node);
+    }
+  }
+
+  /**
+   * Get the node with the given type and qualified name
+   *
+   * @param nodeType
+   * @param qualifiedName
+   * @return null if not found
+   */
+  public SemanticNode getByQualifiedName(NodeType nodeType, String qualifiedName) {
+    Map<String, SemanticNode> nodes = qualifiedNameIndex.get(nodeType);
+    return nodes == null ? null : nodes.get(qualifiedName);
+  }
+
+  /**
+   * Get the method with the given name and number of parameters
+   *
+   * @param methodName
+   * @param arity
+   * @return null if not found
+   */
+  public SemanticNode getMethod(String methodName, int arity) {
+    Map<Integer, SemanticNode> methods = methodIndex.get(methodName);
+    return methods == null ? null : methods.get(arity);
+  }
+
+  /**
+   * Get the field with the given name
+   *
+   * @param fieldName
+   * @return null if not found
+   */
+  public SemanticNode getField(String fieldName) {
+    return fieldIndex.get(fieldName);
+  }
+}
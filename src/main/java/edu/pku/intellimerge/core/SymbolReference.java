@@ -0,0 +1,79 @@
+package edu.pku.intellimerge.core;
+
+import com.github.javaparser.Range;
+import com.github.javaparser.ast.expr.Expression;
+import com.github.javaparser.ast.expr.FieldAccessExpr;
+import com.github.javaparser.ast.expr.MethodCallExpr;
+import edu.pku.intellimerge.util.Utils;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * A field access or method call found in a body, kept until all nodes are built to resolve it into
+ * an edge, without keeping the AST
+ */
+public class SymbolReference implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  // field name or method name
+  private String name;
+  // arguments of method call, empty for field access
+  private List<String> arguments;
+  private String expression;
+  // Range is not serializable, see writeObject and readObject
+  private transient Optional<Range> range;
+
+  public SymbolReference(
+      String name, List<String> arguments, String expression, Optional<Range> range) {
+    this.name = name;
+    this.arguments = arguments;
+    this.expression = expression;
+    this.range = range;
+  }
+
+  public static SymbolReference of(FieldAccessExpr expr) {
+    return new SymbolReference(
+        expr.getNameAsString(), new ArrayList<>(), expr.toString(), expr.getRange());
+  }
+
+  public static SymbolReference of(MethodCallExpr expr) {
+    return new SymbolReference(
+        expr.getNameAsString(),
+        expr.getArguments().stream().map(Expression::toString).collect(Collectors.toList()),
+        expr.toString(),
+        expr.getRange());
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public List<String> getArguments() {
+    return arguments;
+  }
+
+  public String getExpression() {
+    return expression;
+  }
+
+  public Optional<Range> getRange() {
+    return range;
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    Utils.writeRange(out, range);
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    range = Utils.readRange(in);
+  }
+}
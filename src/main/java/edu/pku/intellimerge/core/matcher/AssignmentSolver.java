@@ -0,0 +1,39 @@
+package edu.pku.intellimerge.core.matcher;
+
+/**
+ * Engine to solve the maximum weight bipartite matching (assignment) on primitive arrays, with the
+ * bipartite given as a sparse list of edges between row ids and column ids
+ */
+public interface AssignmentSolver {
+  // the dense solver is faster if the cost matrix has at most so many cells
+  int MAX_DENSE_CELLS = 128 * 128;
+
+  /**
+   * Choose the engine by the problem size: the dense Hungarian for small blocks, the sparse
+   * shortest augmenting path solver for large ones
+   *
+   * @param rowCount
+   * @param columnCount
+   * @return
+   */
+  static AssignmentSolver forSize(int rowCount, int columnCount) {
+    long size = Math.max(rowCount, columnCount);
+    if (size * size <= MAX_DENSE_CELLS) {
+      return new HungarianSolver();
+    } else {
+      return new SparseAssignmentSolver();
+    }
+  }
+
+  /**
+   * Find the matching with the maximum total weight, each row and column is matched at most once
+   *
+   * @param rowCount
+   * @param columnCount
+   * @param rows the row id of each edge
+   * @param columns the column id of each edge
+   * @param weights the positive weight of each edge, at most one edge between each pair
+   * @return the column id matched with each row, -1 if the row is unmatched
+   */
+  int[] solve(int rowCount, int columnCount, int[] rows, int[] columns, double[] weights);
+}
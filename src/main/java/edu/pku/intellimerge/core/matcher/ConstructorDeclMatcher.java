@@ -5,16 +5,25 @@ import edu.pku.intellimerge.model.constant.NodeType;
 import edu.pku.intellimerge.model.constant.RefactoringType;
 import edu.pku.intellimerge.model.mapping.TwowayMatching;
 import edu.pku.intellimerge.model.node.ConstructorDeclNode;
+import edu.pku.intellimerge.util.PipelineScheduler;
 import edu.pku.intellimerge.util.SimilarityAlg;
-import org.jgrapht.alg.matching.MaximumWeightBipartiteMatching;
-import org.jgrapht.graph.DefaultUndirectedWeightedGraph;
-import org.jgrapht.graph.DefaultWeightedEdge;
+import edu.pku.intellimerge.util.SimilarityCache;
 
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 public class ConstructorDeclMatcher {
+  private SimilarityCache cache;
+  // pool to compute similarities in parallel
+  private PipelineScheduler scheduler = PipelineScheduler.getDefault();
+
+  public ConstructorDeclMatcher(SimilarityCache cache) {
+    this.cache = cache;
+  }
+
+  public void setScheduler(PipelineScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
   /**
    * Match methods that are unmatched for signature change, including many kinds of refactorings
    *
@@ -26,43 +35,27 @@ public class ConstructorDeclMatcher {
       TwowayMatching matching,
       List<SemanticNode> unmatched1,
       List<SemanticNode> unmatched2) {
-    // use bipartite to match methods according to similarity
-    Set<SemanticNode> partition1 = new HashSet<>();
-    Set<SemanticNode> partition2 = new HashSet<>();
-    // should be simple graph: no self-loops and no multiple edges
-    DefaultUndirectedWeightedGraph<SemanticNode, DefaultWeightedEdge> biPartite =
-        new DefaultUndirectedWeightedGraph<>(DefaultWeightedEdge.class);
-
-    for (SemanticNode node1 : unmatched1) {
-      for (SemanticNode node2 : unmatched2) {
-        biPartite.addVertex(node1);
-        partition1.add(node1);
-        biPartite.addVertex(node2);
-        partition2.add(node2);
-        biPartite.addEdge(node1, node2);
-        double similarity =
-            SimilarityAlg.terminal(
-                (ConstructorDeclNode) node1, (ConstructorDeclNode) node2);
-        biPartite.setEdgeWeight(node1, node2, similarity);
-      }
-    }
-    // bipartite / to match most likely renamed methods
-    // find the maximum /, one terminal cannot be renamed to two
-    //    biPartite.edgeSet();
-    MaximumWeightBipartiteMatching matcher =
-        new MaximumWeightBipartiteMatching(biPartite, partition1, partition2);
-    Set<DefaultWeightedEdge> edges = matcher.getMatching().getEdges();
-    // add one2oneMatchings found and remove from unmatched
-    for (DefaultWeightedEdge edge : edges) {
-      SemanticNode sourceNode = biPartite.getEdgeSource(edge);
-      SemanticNode targetNode = biPartite.getEdgeTarget(edge);
-      double confidence = biPartite.getEdgeWeight(edge);
-      if (confidence >= 0.618) {
-        matching.unmatchedNodes1.get(NodeType.CONSTRUCTOR).remove(sourceNode);
-        matching.unmatchedNodes2.get(NodeType.CONSTRUCTOR).remove(targetNode);
-        matching.markRefactoring(
-            sourceNode, targetNode, RefactoringType.CHANGE_CONSTRUCTOR_SIGNATURE, confidence);
-      }
+    SimilarityMatrix matrix =
+        SimilarityMatrix.compute(
+            unmatched1,
+            unmatched2,
+            (node1, node2) ->
+                SimilarityAlg.terminal(
+                    (ConstructorDeclNode) node1, (ConstructorDeclNode) node2, cache, 0.618),
+            scheduler);
+    // bipartite matching to match most likely renamed constructors
+    // find the maximum matching, one terminal cannot be renamed to two
+    for (int i : matrix.assign(0.618)) {
+      SemanticNode sourceNode = matrix.getNode1(i);
+      SemanticNode targetNode = matrix.getNode2(i);
+      // add one2oneMatchings found and remove from unmatched
+      matching.unmatchedNodes1.get(NodeType.CONSTRUCTOR).remove(sourceNode);
+      matching.unmatchedNodes2.get(NodeType.CONSTRUCTOR).remove(targetNode);
+      matching.markRefactoring(
+          sourceNode,
+          targetNode,
+          RefactoringType.CHANGE_CONSTRUCTOR_SIGNATURE,
+          matrix.getSimilarity(i));
     }
   }
 }
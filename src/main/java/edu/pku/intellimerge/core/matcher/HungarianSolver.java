@@ -0,0 +1,88 @@
+package edu.pku.intellimerge.core.matcher;
+
+import java.util.Arrays;
+
+/**
+ * The Hungarian algorithm on a dense square cost matrix in O(n^3), for small bipartites
+ *
+ * <p>Missing edges have weight 0 in the matrix, so a row assigned to a missing edge is unmatched.
+ */
+public class HungarianSolver implements AssignmentSolver {
+  @Override
+  public int[] solve(int rowCount, int columnCount, int[] rows, int[] columns, double[] weights) {
+    int[] result = new int[rowCount];
+    Arrays.fill(result, -1);
+    if (rows.length == 0) {
+      return result;
+    }
+    int n = Math.max(rowCount, columnCount);
+    double maxWeight = 0D;
+    for (double weight : weights) {
+      maxWeight = Math.max(maxWeight, weight);
+    }
+    // minimize the cost of maxWeight - weight, 1-based to use row 0 and column 0 as sentinels
+    double[] cost = new double[(n + 1) * (n + 1)];
+    Arrays.fill(cost, maxWeight);
+    boolean[] present = new boolean[(n + 1) * (n + 1)];
+    for (int e = 0; e < rows.length; ++e) {
+      int cell = (rows[e] + 1) * (n + 1) + columns[e] + 1;
+      cost[cell] = maxWeight - weights[e];
+      present[cell] = true;
+    }
+
+    double[] u = new double[n + 1];
+    double[] v = new double[n + 1];
+    // the row assigned to each column, 0 if none
+    int[] p = new int[n + 1];
+    int[] way = new int[n + 1];
+    double[] minv = new double[n + 1];
+    boolean[] used = new boolean[n + 1];
+    for (int i = 1; i <= n; ++i) {
+      p[0] = i;
+      int j0 = 0;
+      Arrays.fill(minv, Double.POSITIVE_INFINITY);
+      Arrays.fill(used, false);
+      do {
+        used[j0] = true;
+        int i0 = p[j0];
+        double delta = Double.POSITIVE_INFINITY;
+        int j1 = 0;
+        for (int j = 1; j <= n; ++j) {
+          if (!used[j]) {
+            double current = cost[i0 * (n + 1) + j] - u[i0] - v[j];
+            if (current < minv[j]) {
+              minv[j] = current;
+              way[j] = j0;
+            }
+            if (minv[j] < delta) {
+              delta = minv[j];
+              j1 = j;
+            }
+          }
+        }
+        for (int j = 0; j <= n; ++j) {
+          if (used[j]) {
+            u[p[j]] += delta;
+            v[j] -= delta;
+          } else {
+            minv[j] -= delta;
+          }
+        }
+        j0 = j1;
+      } while (p[j0] != 0);
+      // augment along the alternating path
+      do {
+        int j1 = way[j0];
+        p[j0] = p[j1];
+        j0 = j1;
+      } while (j0 != 0);
+    }
+
+    for (int j = 1; j <= n; ++j) {
+      if (p[j] <= rowCount && j <= columnCount && present[p[j] * (n + 1) + j]) {
+        result[p[j] - 1] = j - 1;
+      }
+    }
+    return result;
+  }
+}
@@ -9,16 +9,47 @@ import edu.pku.intellimerge.model.constant.RefactoringType;
 import edu.pku.intellimerge.model.mapping.NodeContext;
 import edu.pku.intellimerge.model.mapping.TwowayMatching;
 import edu.pku.intellimerge.model.node.MethodDeclNode;
+import edu.pku.intellimerge.util.PipelineScheduler;
 import edu.pku.intellimerge.util.SimilarityAlg;
-import org.jgrapht.alg.matching.MaximumWeightBipartiteMatching;
-import org.jgrapht.graph.DefaultUndirectedWeightedGraph;
-import org.jgrapht.graph.DefaultWeightedEdge;
+import edu.pku.intellimerge.util.SimilarityCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.stream.Collectors;
 
 public class MethodDeclMatcher {
+  private static final Logger logger = LoggerFactory.getLogger(MethodDeclMatcher.class);
   private static final Double MIN_SIMI = 0.618D;
+  // find candidate pairs with MinHash LSH if there are at least so many pairs, instead of all pairs
+  private long minPairsForIndex = 10000L;
+  // with 32 bands of 2 rows, names with a Jaccard similarity of 0.4 are candidates at 99.6%
+  private int bands = 32;
+  private int rows = 2;
+  private SimilarityCache cache;
+  // pool to compute similarities in parallel
+  private PipelineScheduler scheduler = PipelineScheduler.getDefault();
+
+  public MethodDeclMatcher(SimilarityCache cache) {
+    this.cache = cache;
+  }
+
+  public void setScheduler(PipelineScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Tune the candidate index, more bands or fewer rows find more candidates but run slower
+   *
+   * @param minPairsForIndex compare all pairs if there are fewer pairs, 0 to always use the index
+   * @param bands
+   * @param rows
+   */
+  public void setCandidateIndex(long minPairsForIndex, int bands, int rows) {
+    this.minPairsForIndex = minPairsForIndex;
+    this.bands = bands;
+    this.rows = rows;
+  }
   /**
    * Match methods that are unmatched for signature change, including many kinds of refactorings
    *
@@ -30,44 +61,44 @@ public class MethodDeclMatcher {
       TwowayMatching matching,
       List<SemanticNode> unmatchedMethods1,
       List<SemanticNode> unmatchedMethods2) {
-    // use bipartite to match methods according to similarity
-    Set<SemanticNode> partition1 = new HashSet<>();
-    Set<SemanticNode> partition2 = new HashSet<>();
-    // should be simple graph: no self-loops and no multiple edges
-    DefaultUndirectedWeightedGraph<SemanticNode, DefaultWeightedEdge> biPartite =
-        new DefaultUndirectedWeightedGraph<>(DefaultWeightedEdge.class);
-
-    for (SemanticNode n1 : unmatchedMethods1) {
-      for (SemanticNode n2 : unmatchedMethods2) {
-        // filter improbable pairs by qualified name (including package, type and its name)
-        if (SimilarityAlg.string(n1.getQualifiedName(), n2.getQualifiedName()) > MIN_SIMI) {
-          biPartite.addVertex(n1);
-          partition1.add(n1);
-          biPartite.addVertex(n2);
-          partition2.add(n2);
-          biPartite.addEdge(n1, n2);
-          double similarity = SimilarityAlg.terminal((MethodDeclNode) n1, (MethodDeclNode) n2);
-          biPartite.setEdgeWeight(n1, n2, similarity);
-        }
+    // for many pairs, only compare the candidates with similar qualified names
+    MinHashIndex<SemanticNode> index = null;
+    if ((long) unmatchedMethods1.size() * unmatchedMethods2.size() >= minPairsForIndex) {
+      index = new MinHashIndex<>(bands, rows, SemanticNode::getQualifiedName);
+      index.addAll(unmatchedMethods2);
+      if (logger.isDebugEnabled()) {
+        logger.debug(
+            "Recall of method candidates: {}",
+            index.recall(
+                unmatchedMethods1,
+                (n1, n2) ->
+                    SimilarityAlg.string(n1.getQualifiedName(), n2.getQualifiedName(), cache)
+                        > MIN_SIMI));
       }
     }
-    // bipartite / to match most likely renamed methods
-    // find the maximum /, one terminal cannot be renamed to two
-    biPartite.edgeSet();
-    MaximumWeightBipartiteMatching matcher =
-        new MaximumWeightBipartiteMatching(biPartite, partition1, partition2);
-    Set<DefaultWeightedEdge> edges = matcher.getMatching().getEdges();
-    // add one2oneMatchings found and remove from unmatched
-    for (DefaultWeightedEdge edge : edges) {
-      SemanticNode sourceNode = biPartite.getEdgeSource(edge);
-      SemanticNode targetNode = biPartite.getEdgeTarget(edge);
-      double confidence = biPartite.getEdgeWeight(edge);
-      if (confidence >= MIN_SIMI) {
-        matching.unmatchedNodes1.get(NodeType.METHOD).remove(sourceNode);
-        matching.unmatchedNodes2.get(NodeType.METHOD).remove(targetNode);
-        matching.markRefactoring(
-            sourceNode, targetNode, RefactoringType.CHANGE_METHOD_SIGNATURE, confidence);
-      }
+
+    MinHashIndex<SemanticNode> candidateIndex = index;
+    SimilarityMatrix matrix =
+        SimilarityMatrix.compute(
+            unmatchedMethods1,
+            n1 -> candidateIndex == null ? unmatchedMethods2 : candidateIndex.query(n1),
+            // filter improbable pairs by qualified name (including package, type and its name)
+            (n1, n2) ->
+                SimilarityAlg.string(n1.getQualifiedName(), n2.getQualifiedName(), cache)
+                    > MIN_SIMI,
+            (n1, n2) ->
+                SimilarityAlg.terminal((MethodDeclNode) n1, (MethodDeclNode) n2, cache, MIN_SIMI),
+            scheduler);
+    // use bipartite matching to match most likely renamed methods
+    // find the maximum matching, one terminal cannot be renamed to two
+    for (int i : matrix.assign(MIN_SIMI)) {
+      SemanticNode sourceNode = matrix.getNode1(i);
+      SemanticNode targetNode = matrix.getNode2(i);
+      // add one2oneMatchings found and remove from unmatched
+      matching.unmatchedNodes1.get(NodeType.METHOD).remove(sourceNode);
+      matching.unmatchedNodes2.get(NodeType.METHOD).remove(targetNode);
+      matching.markRefactoring(
+          sourceNode, targetNode, RefactoringType.CHANGE_METHOD_SIGNATURE, matrix.getSimilarity(i));
     }
   }
 
@@ -107,11 +138,12 @@ public class MethodDeclMatcher {
         SemanticNode callerBase = reversedMatching.get(caller);
         NodeContext callerContext = caller.context;
         NodeContext callerBaseContext = callerBase.context;
-        double similarityBefore = SimilarityAlg.context(callerContext, callerBaseContext);
+        double similarityBefore =
+            SimilarityAlg.context(callerContext, callerBaseContext, cache);
 
         // union the context of the caller and callee
-        NodeContext callerUnionContext = callerContext.join(callee.context);
-        double similarityAfter = SimilarityAlg.context(callerUnionContext, callerBaseContext);
+        double similarityAfter =
+            SimilarityAlg.context(callerContext, callee.context, callerBaseContext, cache);
 
         if (similarityAfter > similarityBefore) {
           matching.markRefactoring(
@@ -157,10 +189,10 @@ public class MethodDeclMatcher {
         SemanticNode callerOthers = one2oneMatchings.get(caller);
         NodeContext contextBase = caller.context;
         NodeContext contextOthers = callerOthers.context;
-        double similarityBefore = SimilarityAlg.context(contextBase, contextOthers);
+        double similarityBefore = SimilarityAlg.context(contextBase, contextOthers, cache);
 
         contextBase.setOutgoingEdges(updateOutgoingEdges(contextBase, callee));
-        double similarityAfter = SimilarityAlg.context(contextBase, contextOthers);
+        double similarityAfter = SimilarityAlg.context(contextBase, contextOthers, cache);
 
         if (similarityAfter > similarityBefore) {
           matching.markRefactoring(
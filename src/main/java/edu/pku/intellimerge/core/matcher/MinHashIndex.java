@@ -0,0 +1,167 @@
+package edu.pku.intellimerge.core.matcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+/**
+ * MinHash LSH index over the character shingles of item keys, to find candidate pairs with
+ * similar keys without comparing all pairs
+ *
+ * <p>The signature of a key has bands * rows min hashes, two keys become candidates if all rows
+ * of any band are equal, with the probability 1 - (1 - J^rows)^bands for the Jaccard similarity J
+ * of their shingle sets. More bands or fewer rows trade speed for recall.
+ */
+public class MinHashIndex<T> {
+  // same as the shingle size of the Cosine similarity
+  private static final int SHINGLE_SIZE = 3;
+
+  private int bands;
+  private int rows;
+  private long[] seeds;
+  private Function<T, String> keyFunction;
+  private List<T> items = new ArrayList<>();
+  // item indices by the hash of rows, for each band
+  private List<Map<Long, List<Integer>>> buckets = new ArrayList<>();
+
+  /**
+   * @param bands number of bands
+   * @param rows number of min hashes in each band
+   * @param keyFunction get the key of an item to compare
+   */
+  public MinHashIndex(int bands, int rows, Function<T, String> keyFunction) {
+    this.bands = bands;
+    this.rows = rows;
+    this.keyFunction = keyFunction;
+    this.seeds = new long[bands * rows];
+    for (int i = 0; i < seeds.length; ++i) {
+      // fixed seeds, so that candidates are the same across runs
+      seeds[i] = mix(i + 1L);
+    }
+    for (int i = 0; i < bands; ++i) {
+      buckets.add(new HashMap<>());
+    }
+  }
+
+  /**
+   * Add items into the index
+   *
+   * @param items
+   */
+  public void addAll(List<T> items) {
+    for (T item : items) {
+      int index = this.items.size();
+      this.items.add(item);
+      long[] signature = signature(keyFunction.apply(item));
+      for (int band = 0; band < bands; ++band) {
+        buckets
+            .get(band)
+            .computeIfAbsent(bandHash(signature, band), key -> new ArrayList<>())
+            .add(index);
+      }
+    }
+  }
+
+  /**
+   * Find items that share any band with the query item
+   *
+   * @param query
+   * @return candidate items in the order of adding
+   */
+  public List<T> query(T query) {
+    long[] signature = signature(keyFunction.apply(query));
+    BitSet found = new BitSet(items.size());
+    for (int band = 0; band < bands; ++band) {
+      List<Integer> indices = buckets.get(band).get(bandHash(signature, band));
+      if (indices != null) {
+        indices.forEach(found::set);
+      }
+    }
+    List<T> candidates = new ArrayList<>(found.cardinality());
+    for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+      candidates.add(items.get(i));
+    }
+    return candidates;
+  }
+
+  /**
+   * Fraction of the pairs accepted by the filter that are also found by the index, to measure the
+   * recall of the index against comparing all pairs
+   *
+   * @param queries
+   * @param filter
+   * @return 1 if no pair is accepted by the filter
+   */
+  public double recall(List<T> queries, BiPredicate<T, T> filter) {
+    long accepted = 0;
+    long found = 0;
+    for (T query : queries) {
+      Set<T> candidates = Collections.newSetFromMap(new IdentityHashMap<>());
+      candidates.addAll(query(query));
+      for (T item : items) {
+        if (filter.test(query, item)) {
+          accepted++;
+          if (candidates.contains(item)) {
+            found++;
+          }
+        }
+      }
+    }
+    return accepted == 0 ? 1.0 : (double) found / accepted;
+  }
+
+  /**
+   * Compute the min hashes of the shingles in the key, a key shorter than a shingle is taken as
+   * one shingle
+   *
+   * @param key
+   * @return
+   */
+  private long[] signature(String key) {
+    long[] signature = new long[seeds.length];
+    Arrays.fill(signature, Long.MAX_VALUE);
+    int count = Math.max(1, key.length() - SHINGLE_SIZE + 1);
+    for (int start = 0; start < count; ++start) {
+      int end = Math.min(key.length(), start + SHINGLE_SIZE);
+      // same as the hashCode of the shingle string, without creating it
+      int shingle = 0;
+      for (int i = start; i < end; ++i) {
+        shingle = 31 * shingle + key.charAt(i);
+      }
+      for (int i = 0; i < seeds.length; ++i) {
+        long hash = mix(shingle ^ seeds[i]);
+        if (hash < signature[i]) {
+          signature[i] = hash;
+        }
+      }
+    }
+    return signature;
+  }
+
+  private long bandHash(long[] signature, int band) {
+    long hash = band;
+    for (int row = band * rows; row < (band + 1) * rows; ++row) {
+      hash = hash * 31 + signature[row];
+    }
+    return hash;
+  }
+
+  /** The finalizer of SplitMix64, spreads the bits of the input */
+  private static long mix(long value) {
+    value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+    value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+    return value ^ (value >>> 31);
+  }
+
+  public int size() {
+    return items.size();
+  }
+}
@@ -0,0 +1,172 @@
+package edu.pku.intellimerge.core.matcher;
+
+import edu.pku.intellimerge.model.SemanticNode;
+import edu.pku.intellimerge.util.PipelineScheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.ToDoubleBiFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Similarities of candidate pairs as a sparse list, computed in parallel on the scheduler but kept
+ * in the order of comparing the pairs one by one, so that the bipartite built from it is the same
+ */
+public class SimilarityMatrix {
+  private List<SemanticNode> nodes1 = new ArrayList<>();
+  private List<SemanticNode> nodes2 = new ArrayList<>();
+  private double[] similarities;
+
+  /**
+   * Compute the similarities of pairs in two stages: filter the candidates of each node in
+   * parallel, then compute the similarity of each candidate pair in parallel
+   *
+   * @param nodes1
+   * @param candidates candidates to compare with each node in nodes1, in order
+   * @param filter cheap filter of improbable pairs
+   * @param similarity
+   * @param scheduler
+   * @return
+   */
+  public static SimilarityMatrix compute(
+      List<SemanticNode> nodes1,
+      Function<SemanticNode, List<SemanticNode>> candidates,
+      BiPredicate<SemanticNode, SemanticNode> filter,
+      ToDoubleBiFunction<SemanticNode, SemanticNode> similarity,
+      PipelineScheduler scheduler) {
+    SimilarityMatrix matrix = new SimilarityMatrix();
+    try {
+      List<List<SemanticNode>> rows =
+          scheduler.invoke(
+              () ->
+                  nodes1.parallelStream()
+                      .map(
+                          node1 ->
+                              candidates.apply(node1).stream()
+                                  .filter(node2 -> filter.test(node1, node2))
+                                  .collect(Collectors.toList()))
+                      .collect(Collectors.toList()));
+      for (int i = 0; i < nodes1.size(); ++i) {
+        for (SemanticNode node2 : rows.get(i)) {
+          matrix.nodes1.add(nodes1.get(i));
+          matrix.nodes2.add(node2);
+        }
+      }
+      matrix.similarities = new double[matrix.size()];
+      scheduler.invoke(
+          () -> {
+            IntStream.range(0, matrix.size())
+                .parallel()
+                .forEach(
+                    index ->
+                        matrix.similarities[index] =
+                            similarity.applyAsDouble(
+                                matrix.nodes1.get(index), matrix.nodes2.get(index)));
+            return null;
+          });
+    } catch (InterruptedException | ExecutionException e) {
+      // an empty matrix would silently leave every node unmatched
+      throw PipelineScheduler.propagate(e);
+    }
+    return matrix;
+  }
+
+  /**
+   * Compute the similarities of all pairs in parallel
+   *
+   * @param nodes1
+   * @param nodes2
+   * @param similarity
+   * @param scheduler
+   * @return
+   */
+  public static SimilarityMatrix compute(
+      List<SemanticNode> nodes1,
+      List<SemanticNode> nodes2,
+      ToDoubleBiFunction<SemanticNode, SemanticNode> similarity,
+      PipelineScheduler scheduler) {
+    return compute(nodes1, node1 -> nodes2, (node1, node2) -> true, similarity, scheduler);
+  }
+
+  /**
+   * Find the maximum weight bipartite matching of the pairs not below the threshold, with the
+   * engine chosen by the problem size
+   *
+   * @param threshold
+   * @return indices of the matched pairs, in order
+   */
+  public List<Integer> assign(double threshold) {
+    return assign(threshold, null);
+  }
+
+  /**
+   * Find the maximum weight bipartite matching of the pairs not below the threshold
+   *
+   * @param threshold pairs below it can never be accepted, so they are pruned before solving
+   * @param solver null to choose the engine by the problem size
+   * @return indices of the matched pairs, in order
+   */
+  public List<Integer> assign(double threshold, AssignmentSolver solver) {
+    // number nodes in the order of first appearance
+    Map<SemanticNode, Integer> rowIds = new HashMap<>();
+    Map<SemanticNode, Integer> columnIds = new HashMap<>();
+    int[] pairs = new int[size()];
+    int[] rows = new int[size()];
+    int[] columns = new int[size()];
+    double[] weights = new double[size()];
+    int edgeCount = 0;
+    for (int i = 0; i < size(); ++i) {
+      // NaN is never accepted either
+      if (similarities[i] >= threshold) {
+        pairs[edgeCount] = i;
+        rows[edgeCount] = rowIds.computeIfAbsent(nodes1.get(i), node -> rowIds.size());
+        columns[edgeCount] = columnIds.computeIfAbsent(nodes2.get(i), node -> columnIds.size());
+        weights[edgeCount] = similarities[i];
+        edgeCount++;
+      }
+    }
+    List<Integer> matched = new ArrayList<>();
+    if (edgeCount == 0) {
+      return matched;
+    }
+    if (solver == null) {
+      solver = AssignmentSolver.forSize(rowIds.size(), columnIds.size());
+    }
+    int[] assignment =
+        solver.solve(
+            rowIds.size(),
+            columnIds.size(),
+            Arrays.copyOf(rows, edgeCount),
+            Arrays.copyOf(columns, edgeCount),
+            Arrays.copyOf(weights, edgeCount));
+    for (int e = 0; e < edgeCount; ++e) {
+      if (assignment[rows[e]] == columns[e]) {
+        matched.add(pairs[e]);
+      }
+    }
+    return matched;
+  }
+
+  public int size() {
+    return nodes1.size();
+  }
+
+  public SemanticNode getNode1(int index) {
+    return nodes1.get(index);
+  }
+
+  public SemanticNode getNode2(int index) {
+    return nodes2.get(index);
+  }
+
+  public double getSimilarity(int index) {
+    return similarities[index];
+  }
+}
@@ -0,0 +1,187 @@
+package edu.pku.intellimerge.core.matcher;
+
+import java.util.Arrays;
+
+/**
+ * Shortest augmenting path solver (the augmentation of Jonker-Volgenant) on the sparse bipartite,
+ * in O(r * e * log(e)) for r rows and e edges, for large bipartites with few edges per row
+ *
+ * <p>Each row has a private dummy column with weight 0, so every row is assigned and a row
+ * assigned to its dummy column is unmatched. Rows are augmented one by one with Dijkstra on the
+ * costs reduced by the potentials of rows and columns.
+ */
+public class SparseAssignmentSolver implements AssignmentSolver {
+  @Override
+  public int[] solve(int rowCount, int columnCount, int[] rows, int[] columns, double[] weights) {
+    int[] result = new int[rowCount];
+    Arrays.fill(result, -1);
+    if (rows.length == 0) {
+      return result;
+    }
+    double maxWeight = 0D;
+    for (double weight : weights) {
+      maxWeight = Math.max(maxWeight, weight);
+    }
+    // edges of each row in compressed sparse rows
+    int[] offsets = new int[rowCount + 1];
+    for (int row : rows) {
+      offsets[row + 1]++;
+    }
+    for (int i = 0; i < rowCount; ++i) {
+      offsets[i + 1] += offsets[i];
+    }
+    int[] targets = new int[rows.length];
+    double[] costs = new double[rows.length];
+    int[] next = Arrays.copyOf(offsets, rowCount);
+    for (int e = 0; e < rows.length; ++e) {
+      int slot = next[rows[e]]++;
+      targets[slot] = columns[e];
+      costs[slot] = maxWeight - weights[e];
+    }
+
+    // real columns first, then the dummy column of each row
+    int allColumns = columnCount + rowCount;
+    double[] rowPotentials = new double[rowCount];
+    double[] columnPotentials = new double[allColumns];
+    int[] rowOfColumn = new int[allColumns];
+    Arrays.fill(rowOfColumn, -1);
+    int[] columnOfRow = new int[rowCount];
+
+    double[] distances = new double[allColumns];
+    Arrays.fill(distances, Double.POSITIVE_INFINITY);
+    int[] predecessors = new int[allColumns];
+    boolean[] done = new boolean[allColumns];
+    int[] touched = new int[allColumns];
+    Heap heap = new Heap();
+
+    for (int source = 0; source < rowCount; ++source) {
+      int touchedCount = 0;
+      heap.clear();
+      int row = source;
+      double rowDistance = 0D;
+      int free;
+      while (true) {
+        // relax the edges of the row, including its dummy column
+        for (int slot = offsets[row]; slot <= offsets[row + 1]; ++slot) {
+          int column;
+          double cost;
+          if (slot < offsets[row + 1]) {
+            column = targets[slot];
+            cost = costs[slot];
+          } else {
+            column = columnCount + row;
+            cost = maxWeight;
+          }
+          if (done[column]) {
+            continue;
+          }
+          double distance = rowDistance + cost + rowPotentials[row] - columnPotentials[column];
+          if (distance < distances[column]) {
+            if (distances[column] == Double.POSITIVE_INFINITY) {
+              touched[touchedCount++] = column;
+            }
+            distances[column] = distance;
+            predecessors[column] = row;
+            heap.push(distance, column);
+          }
+        }
+        int column = heap.pop();
+        while (done[column]) {
+          column = heap.pop();
+        }
+        done[column] = true;
+        if (rowOfColumn[column] < 0) {
+          free = column;
+          break;
+        }
+        row = rowOfColumn[column];
+        rowDistance = distances[column];
+      }
+
+      // update the potentials of the finalized rows and columns to keep reduced costs >= 0
+      double delta = distances[free];
+      rowPotentials[source] -= delta;
+      for (int i = 0; i < touchedCount; ++i) {
+        int column = touched[i];
+        if (done[column] && column != free) {
+          double shift = delta - distances[column];
+          columnPotentials[column] -= shift;
+          rowPotentials[rowOfColumn[column]] -= shift;
+        }
+        distances[column] = Double.POSITIVE_INFINITY;
+        done[column] = false;
+      }
+      // augment along the alternating path
+      int column = free;
+      while (true) {
+        int pred = predecessors[column];
+        int previous = pred == source ? -1 : columnOfRow[pred];
+        rowOfColumn[column] = pred;
+        columnOfRow[pred] = column;
+        if (previous < 0) {
+          break;
+        }
+        column = previous;
+      }
+    }
+
+    for (int row = 0; row < rowCount; ++row) {
+      if (columnOfRow[row] < columnCount) {
+        result[row] = columnOfRow[row];
+      }
+    }
+    return result;
+  }
+
+  /** Binary min-heap of columns by distance, with stale entries skipped by the caller */
+  private static class Heap {
+    private double[] keys = new double[16];
+    private int[] values = new int[16];
+    private int size = 0;
+
+    void clear() {
+      size = 0;
+    }
+
+    void push(double key, int value) {
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      int i = size++;
+      while (i > 0) {
+        int parent = (i - 1) / 2;
+        if (keys[parent] <= key) {
+          break;
+        }
+        keys[i] = keys[parent];
+        values[i] = values[parent];
+        i = parent;
+      }
+      keys[i] = key;
+      values[i] = value;
+    }
+
+    int pop() {
+      int top = values[0];
+      double key = keys[--size];
+      int value = values[size];
+      int i = 0;
+      while (2 * i + 1 < size) {
+        int child = 2 * i + 1;
+        if (child + 1 < size && keys[child + 1] < keys[child]) {
+          child++;
+        }
+        if (keys[child] >= key) {
+          break;
+        }
+        keys[i] = keys[child];
+        values[i] = values[child];
+        i = child;
+      }
+      keys[i] = key;
+      values[i] = value;
+      return top;
+    }
+  }
+}
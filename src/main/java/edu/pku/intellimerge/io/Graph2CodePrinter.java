@@ -8,14 +8,11 @@ import edu.pku.intellimerge.model.node.OrphanCommentNode;
 import edu.pku.intellimerge.model.node.TerminalNode;
 import edu.pku.intellimerge.util.Utils;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.io.StringReader;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.io.Writer;
 
 public class Graph2CodePrinter {
 
@@ -30,140 +27,199 @@ public class Graph2CodePrinter {
   public static String printCU(SemanticNode node, CompilationUnitNode cu, String resultDir) {
     String resultFilePath =
         Utils.formatPathSeparator(resultDir + File.separator + cu.getRelativePath());
-    // merged package imports
-    StringBuilder builder = new StringBuilder();
-    builder.append(
-        cu.getComment().isEmpty()
-            ? ""
-            : cu.getComment() + System.lineSeparator() + System.lineSeparator());
-    builder.append(cu.getPackageStatement());
-    cu.getImportStatements().forEach(importStatement -> builder.append(importStatement));
-    // merged content, field-constructor-terminal, and reformat in google-java-format
-    builder.append(printNode(node));
-    //    String reformattedCode = reformatCode(builder.toString());
-    //    String reformattedCode = Utils.formatCodeWithConflicts(builder.toString(), false);
-    Utils.writeContent(resultFilePath, builder.toString(), false);
+    File file = new File(resultFilePath);
+    if (file.exists()) {
+      file.delete();
+    }
+    file.getParentFile().mkdirs();
+    try (Writer writer = new BufferedWriter(new FileWriter(file))) {
+      // merged package imports
+      if (!cu.getComment().isEmpty()) {
+        writer.write(cu.getComment());
+        writer.write(System.lineSeparator());
+        writer.write(System.lineSeparator());
+      }
+      writer.write(cu.getPackageStatement());
+      for (String importStatement : cu.getImportStatements()) {
+        writer.write(importStatement);
+      }
+      // merged content, field-constructor-terminal
+      printNode(node, writer);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
     return resultFilePath;
   }
 
   /**
-   * Print the node content and children into code string
+   * Print the node content and children to the writer in one pass, each node indents the lines
+   * printed by itself and its children on the fly
    *
    * @param node
-   * @return
+   * @param out
+   * @throws IOException
    */
-  private static String printNode(SemanticNode node) {
+  public static void printNode(SemanticNode node, Writer out) throws IOException {
     int indent = 0;
     if (node.getRange().isPresent()) {
       indent = node.getRange().get().begin.column - 1;
     }
-    StringBuilder builder = new StringBuilder();
+    IndentingWriter writer = new IndentingWriter(out, indent);
     if (node instanceof TerminalNode) {
-      builder.append(
-          node.getComment().isEmpty() ? "" : (node.getComment().trim() + System.lineSeparator()));
-      builder.append(
-          node.getAnnotations().isEmpty()
-              ? ""
-              : (node.getAnnotations().stream().collect(Collectors.joining(System.lineSeparator()))
-                  + System.lineSeparator()));
+      printCommentAndAnnotations(node, writer);
       if (node.getNodeType().equals(NodeType.INITIALIZER_BLOCK)) {
-        builder.append(node.getOriginalSignature().contains("static") ? "static" : "");
+        writer.write(node.getOriginalSignature().contains("static") ? "static" : "");
       } else {
-        builder.append(node.getOriginalSignature());
-      }
-      builder.append(((TerminalNode) node).getBody());
-      for (int i = 0; i < node.followingEOL; ++i) {
-        builder.append(System.lineSeparator());
+        writer.write(node.getOriginalSignature());
       }
+      writer.write(((TerminalNode) node).getBody());
+      printEOL(node.followingEOL, writer);
     } else if (node instanceof CompositeNode) {
       if (!node.getNodeType().equals(NodeType.COMPILATION_UNIT)) {
-        builder.append(
-            node.getComment().isEmpty() ? "" : (node.getComment().trim() + System.lineSeparator()));
-        builder.append(
-            node.getAnnotations().isEmpty()
-                ? ""
-                : (node.getAnnotations().stream()
-                        .collect(Collectors.joining(System.lineSeparator()))
-                    + System.lineSeparator()));
-        builder.append(node.getOriginalSignature());
-        builder.append(((CompositeNode) node).curlyBracePrefix);
-        builder.append("{");
-        for (int i = 0; i < ((CompositeNode) node).beforeFirstChildEOL; ++i) {
-          builder.append(System.lineSeparator());
-        }
+        printCommentAndAnnotations(node, writer);
+        writer.write(node.getOriginalSignature());
+        writer.write(((CompositeNode) node).curlyBracePrefix);
+        writer.write("{");
+        printEOL(((CompositeNode) node).beforeFirstChildEOL, writer);
       }
       if (node.getNodeType().equals(NodeType.ENUM)) {
         int childrenSize = node.getChildren().size();
         for (int i = 0; i < childrenSize; ++i) {
           SemanticNode child = node.getChildAtPosition(i);
-          builder.append(printNode(child));
+          printNode(child, writer);
           if (i + 1 < childrenSize && child.getNodeType().equals(NodeType.ENUM_CONSTANT)) {
             // if next is another constant
             if (node.getChildAtPosition(i + 1).getNodeType().equals(NodeType.ENUM_CONSTANT)) {
-              builder.append(",");
+              writer.write(",");
             } else {
-              builder.append(";");
+              writer.write(";");
             }
           }
         }
       } else {
         for (SemanticNode child : node.getChildren()) {
-          builder.append(printNode(child)).append(System.lineSeparator());
+          printNode(child, writer);
+          writer.write(System.lineSeparator());
         }
       }
 
       if (!node.getNodeType().equals(NodeType.COMPILATION_UNIT)) {
-        builder.append("}");
+        writer.write("}");
       }
 
       // since the last child has appened on EOL
       if (node.followingEOL > 1) {
-        for (int i = 0; i < node.followingEOL; ++i) {
-          builder.append(System.lineSeparator());
-        }
+        printEOL(node.followingEOL, writer);
       }
     } else if (node instanceof OrphanCommentNode) {
-      builder.append(node.getOriginalSignature());
-      for (int i = 0; i < node.followingEOL; ++i) {
-        builder.append(System.lineSeparator());
-      }
+      writer.write(node.getOriginalSignature());
+      printEOL(node.followingEOL, writer);
     }
+    writer.finish();
+  }
+
+  private static void printCommentAndAnnotations(SemanticNode node, Writer writer)
+      throws IOException {
+    if (!node.getComment().isEmpty()) {
+      writer.write(node.getComment().trim());
+      writer.write(System.lineSeparator());
+    }
+    if (!node.getAnnotations().isEmpty()) {
+      writer.write(String.join(System.lineSeparator(), node.getAnnotations()));
+      writer.write(System.lineSeparator());
+    }
+  }
 
-    return indentCodeLines(builder.toString(), indent);
+  private static void printEOL(int count, Writer writer) throws IOException {
+    for (int i = 0; i < count; ++i) {
+      writer.write(System.lineSeparator());
+    }
   }
 
   /**
-   * Indent lines of code
-   *
-   * @param code
-   * @param indent
+   * Indent lines written by a node before passing them to the writer of its parent, in the same way
+   * as splitting the printed node into lines and joining the indented lines: line breaks are
+   * normalized, and the line break at the end of the node is dropped
    */
-  private static String indentCodeLines(String code, int indent) {
-    List<String> indentedLines = new ArrayList<>();
-    try {
-
-      BufferedReader bufReader = new BufferedReader(new StringReader(code));
-
-      String line = null;
-      while ((line = bufReader.readLine()) != null) {
-        int spaceCount = line.indexOf(line.trim());
-        String indentedLine = "";
-        if (spaceCount < indent) {
-          indentedLine = String.join("", Collections.nCopies(indent, " ")) + line;
-        } else {
-          indentedLine = line;
+  private static class IndentingWriter extends Writer {
+    private final Writer out;
+    private final int indent;
+    // the current line, until its line break or the end of the node
+    private final StringBuilder line = new StringBuilder();
+    // the line break of the last line is written only if another line follows
+    private boolean pendingLineBreak = false;
+    // skip '\n' after '\r'
+    private boolean skipLF = false;
+
+    IndentingWriter(Writer out, int indent) {
+      this.out = out;
+      this.indent = indent;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+      for (int i = off; i < off + len; ++i) {
+        put(cbuf[i]);
+      }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+      for (int i = off; i < off + len; ++i) {
+        put(str.charAt(i));
+      }
+    }
+
+    private void put(char c) throws IOException {
+      if (skipLF) {
+        skipLF = false;
+        if (c == '\n') {
+          return;
         }
-        if (line.contains(Utils.CONFLICT_LEFT_BEGIN)
-            || line.contains(Utils.CONFLICT_BASE_BEGIN)
-            || line.contains(Utils.CONFLICT_RIGHT_BEGIN)
-            || line.contains(Utils.CONFLICT_RIGHT_END)) {
-          indentedLine = line;
+      }
+      if (c == '\n' || c == '\r') {
+        writeLine();
+        skipLF = c == '\r';
+      } else {
+        line.append(c);
+      }
+    }
+
+    private void writeLine() throws IOException {
+      if (pendingLineBreak) {
+        out.write(System.lineSeparator());
+      }
+      String content = line.toString();
+      line.setLength(0);
+      int spaceCount = content.indexOf(content.trim());
+      if (spaceCount < indent
+          && !content.contains(Utils.CONFLICT_LEFT_BEGIN)
+          && !content.contains(Utils.CONFLICT_BASE_BEGIN)
+          && !content.contains(Utils.CONFLICT_RIGHT_BEGIN)
+          && !content.contains(Utils.CONFLICT_RIGHT_END)) {
+        for (int i = 0; i < indent; ++i) {
+          out.write(' ');
         }
-        indentedLines.add(indentedLine);
       }
-    } catch (IOException e) {
-      e.printStackTrace();
+      out.write(content);
+      pendingLineBreak = true;
+    }
+
+    /** Write the last line of the node without its line break */
+    void finish() throws IOException {
+      if (line.length() > 0) {
+        writeLine();
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      finish();
     }
-    return indentedLines.stream().collect(Collectors.joining(System.lineSeparator()));
   }
 }
@@ -0,0 +1,57 @@
+package edu.pku.intellimerge.io;
+
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Include files whose path ends with any of the given suffixes at a "/" boundary, e.g. a file path
+ * relative to the source folder (from an import declaration) matches the file in the repository
+ *
+ * <p>Suffixes are looked up in a hash set for each trailing part of the path, so the cost does not
+ * grow with the number of suffixes.
+ */
+public class PathSuffixGroupFilter extends TreeFilter {
+  private Set<String> suffixes;
+
+  /** @param suffixes relative file paths with "/" as the separator */
+  public PathSuffixGroupFilter(Set<String> suffixes) {
+    this.suffixes = new HashSet<>(suffixes);
+  }
+
+  /**
+   * Whether the file path ends with any of the suffixes
+   *
+   * @param path
+   * @return
+   */
+  public boolean matches(String path) {
+    if (suffixes.contains(path)) {
+      return true;
+    }
+    for (int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i + 1)) {
+      if (suffixes.contains(path.substring(i + 1))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean include(TreeWalk walker) {
+    // any folder can contain the suffixes
+    return walker.isSubtree() || matches(walker.getPathString());
+  }
+
+  @Override
+  public boolean shouldBeRecursive() {
+    return true;
+  }
+
+  @Override
+  public TreeFilter clone() {
+    return this;
+  }
+}
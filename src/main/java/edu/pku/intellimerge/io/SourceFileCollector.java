@@ -10,30 +10,38 @@ import edu.pku.intellimerge.model.constant.Side;
 import edu.pku.intellimerge.util.GitService;
 import edu.pku.intellimerge.util.Utils;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.StringWriter;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
 
 public class SourceFileCollector {
 
   private static final Logger logger = LoggerFactory.getLogger(SourceFileCollector.class);
+  // sides in the order of trees in the walk
+  private static final List<Side> SIDES = Arrays.asList(Side.OURS, Side.BASE, Side.THEIRS);
 
   private Repository repository;
   private String collectedFilePath;
@@ -43,7 +51,13 @@ public class SourceFileCollector {
   // copy imported files or not
   private boolean copyImportedFiles = true;
   // save the collected file content to disk or not (true for development, false for production)
-  //  private boolean collectToFiles = true;
+  private boolean collectToFiles = true;
+  // collected file contents by relative path for each side, if not saved to disk
+  private Map<Side, Map<String, byte[]>> collectedSources = new EnumMap<>(Side.class);
+  // resolve files changed on only one side by taking the changed version, without analysis
+  private boolean resolveOneSideChanges = false;
+  // contents of the resolved files by relative path, files deleted in the result are excluded
+  private Map<String, byte[]> resolvedSources = new HashMap<>();
 
   public SourceFileCollector(
       MergeScenario mergeScenario, Repository repository, String collectedFilePath) {
@@ -63,6 +77,17 @@ public class SourceFileCollector {
     this.copyImportedFiles = false;
   }
 
+  /**
+   * Collect files between branches in memory, without writing them to disk
+   *
+   * @param repoPath
+   * @param branchNames
+   */
+  public SourceFileCollector(String repoPath, List<String> branchNames) {
+    this(repoPath, branchNames, "");
+    this.collectToFiles = false;
+  }
+
   /**
    * Get commit ids at the HEAD of the parent branches, and their base commit id
    *
@@ -95,26 +120,252 @@ public class SourceFileCollector {
     this.copyImportedFiles = copyImportedFiles;
   }
 
+  public void setCollectToFiles(boolean collectToFiles) {
+    this.collectToFiles = collectToFiles;
+  }
+
+  public void setResolveOneSideChanges(boolean resolveOneSideChanges) {
+    this.resolveOneSideChanges = resolveOneSideChanges;
+  }
+
+  /**
+   * Get the contents of files resolved without analysis, since only one side changed them
+   *
+   * @return file contents by relative path in the repository
+   */
+  public Map<String, byte[]> getResolvedSources() {
+    return resolvedSources;
+  }
+
+  /**
+   * Get the file contents collected in memory for one side
+   *
+   * @param side
+   * @return file contents by relative path in the repository, empty if collected to files
+   */
+  public Map<String, byte[]> getCollectedSources(Side side) {
+    return collectedSources.getOrDefault(side, new HashMap<>());
+  }
+
   /** Collect related source files to process together */
   public void collectFilesForAllSides() {
     try {
       computeDiffEntries();
+      Map<Side, List<SimpleDiffEntry>> diffEntries = new EnumMap<>(Side.class);
       if (this.onlyBothModified) {
         // collect only both modified files in two sides
-        collectFilesForOneSide(Side.OURS, mergeScenario.bothModifiedEntries);
-        collectFilesForOneSide(Side.BASE, mergeScenario.bothModifiedEntries);
-        collectFilesForOneSide(Side.THEIRS, mergeScenario.bothModifiedEntries);
+        diffEntries.put(Side.OURS, mergeScenario.bothModifiedEntries);
+        diffEntries.put(Side.BASE, mergeScenario.bothModifiedEntries);
+        diffEntries.put(Side.THEIRS, mergeScenario.bothModifiedEntries);
       } else {
         // collect both-sides modified and one-side modified files
-        collectFilesForOneSide(Side.OURS, mergeScenario.oursDiffEntries);
-        collectFilesForOneSide(Side.BASE, mergeScenario.baseDiffEntries);
-        collectFilesForOneSide(Side.THEIRS, mergeScenario.theirsDiffEntries);
+        diffEntries.put(Side.OURS, mergeScenario.oursDiffEntries);
+        diffEntries.put(Side.BASE, mergeScenario.baseDiffEntries);
+        diffEntries.put(Side.THEIRS, mergeScenario.theirsDiffEntries);
+        if (resolveOneSideChanges) {
+          diffEntries = resolveOneSideChanges(diffEntries);
+        }
       }
+      collectFilesInOneWalk(diffEntries);
     } catch (Exception e) {
       e.printStackTrace();
     }
   }
 
+  /**
+   * Classify the diff files by comparing their blob ids in the three sides, and resolve the files
+   * that only one side changed (or both sides changed in the same way) with the changed version
+   *
+   * <p>Files that one side changed but imported by files that both sides changed are still
+   * analyzed, since changes like moving members can involve both of them.
+   *
+   * @param diffEntries diff entries of each side
+   * @return diff entries of each side to be analyzed
+   * @throws Exception
+   */
+  private Map<Side, List<SimpleDiffEntry>> resolveOneSideChanges(
+      Map<Side, List<SimpleDiffEntry>> diffEntries) throws Exception {
+    Set<String> diffFilePaths = new HashSet<>();
+    for (List<SimpleDiffEntry> entries : diffEntries.values()) {
+      entries.forEach(diffEntry -> diffFilePaths.add(getRelativePath(diffEntry)));
+    }
+    if (diffFilePaths.isEmpty()) {
+      return diffEntries;
+    }
+
+    // blob ids in the order of SIDES, zero id if the file does not exist in a side
+    Map<String, ObjectId[]> blobIds = new HashMap<>();
+    try (RevWalk revWalk = new RevWalk(repository);
+        TreeWalk treeWalk = new TreeWalk(repository)) {
+      addSideTrees(treeWalk, revWalk);
+      treeWalk.setRecursive(true);
+      treeWalk.setFilter(PathFilterGroup.createFromStrings(diffFilePaths));
+      while (treeWalk.next()) {
+        ObjectId[] ids = new ObjectId[SIDES.size()];
+        for (int i = 0; i < SIDES.size(); ++i) {
+          ids[i] =
+              treeWalk.getFileMode(i).getObjectType() == Constants.OBJ_BLOB
+                  ? treeWalk.getObjectId(i)
+                  : ObjectId.zeroId();
+        }
+        blobIds.put(treeWalk.getPathString(), ids);
+      }
+    }
+
+    Set<String> bothChangedPaths = new HashSet<>();
+    Map<String, ObjectId> resolvedBlobIds = new HashMap<>();
+    for (Map.Entry<String, ObjectId[]> entry : blobIds.entrySet()) {
+      ObjectId oursId = entry.getValue()[SIDES.indexOf(Side.OURS)];
+      ObjectId baseId = entry.getValue()[SIDES.indexOf(Side.BASE)];
+      ObjectId theirsId = entry.getValue()[SIDES.indexOf(Side.THEIRS)];
+      if (oursId.equals(theirsId) || baseId.equals(theirsId)) {
+        resolvedBlobIds.put(entry.getKey(), oursId);
+      } else if (baseId.equals(oursId)) {
+        resolvedBlobIds.put(entry.getKey(), theirsId);
+      } else {
+        bothChangedPaths.add(entry.getKey());
+      }
+    }
+
+    // files imported by the both changed files in any side
+    Set<String> importedFilePaths = new HashSet<>();
+    for (String path : bothChangedPaths) {
+      for (ObjectId id : blobIds.get(path)) {
+        if (!id.equals(ObjectId.zeroId())) {
+          String content = new String(repository.open(id).getBytes(), StandardCharsets.UTF_8);
+          getImportedFilePaths(content).stream()
+              .map(Utils::formatPathSeparator)
+              .forEach(importedFilePaths::add);
+        }
+      }
+    }
+    PathSuffixGroupFilter importFilter = new PathSuffixGroupFilter(importedFilePaths);
+
+    Set<String> analyzedPaths = new HashSet<>(bothChangedPaths);
+    for (Map.Entry<String, ObjectId> entry : resolvedBlobIds.entrySet()) {
+      if (importFilter.matches(entry.getKey())) {
+        analyzedPaths.add(entry.getKey());
+      } else if (!entry.getValue().equals(ObjectId.zeroId())) {
+        resolvedSources.put(entry.getKey(), repository.open(entry.getValue()).getBytes());
+      }
+    }
+    logger.info(
+        "Resolved ({}) files changed on one side, ({}) files left to analyze.",
+        blobIds.size() - analyzedPaths.size(),
+        analyzedPaths.size());
+
+    Map<Side, List<SimpleDiffEntry>> analyzedEntries = new EnumMap<>(Side.class);
+    for (Map.Entry<Side, List<SimpleDiffEntry>> entry : diffEntries.entrySet()) {
+      analyzedEntries.put(
+          entry.getKey(),
+          entry.getValue().stream()
+              .filter(diffEntry -> analyzedPaths.contains(getRelativePath(diffEntry)))
+              .collect(Collectors.toList()));
+    }
+    return analyzedEntries;
+  }
+
+  /**
+   * Collect related source files for all sides together, by walking the three commit trees at the
+   * same time, instead of walking the whole tree for each side
+   *
+   * <p>Diff files are filtered by their paths, so only folders on the way to them are visited;
+   * imported files are filtered by path suffixes in another walk.
+   *
+   * @param diffEntries diff entries to collect for each side
+   * @throws Exception
+   */
+  private void collectFilesInOneWalk(Map<Side, List<SimpleDiffEntry>> diffEntries)
+      throws Exception {
+    Map<Side, Set<String>> diffFilePaths = new EnumMap<>(Side.class);
+    Map<Side, Set<String>> importedFilePaths = new EnumMap<>(Side.class);
+    Set<String> allDiffFilePaths = new HashSet<>();
+    for (Side side : SIDES) {
+      Set<String> sideDiffFilePaths = new HashSet<>();
+      for (SimpleDiffEntry diffEntry : diffEntries.getOrDefault(side, new ArrayList<>())) {
+        sideDiffFilePaths.add(getRelativePath(diffEntry));
+      }
+      diffFilePaths.put(side, sideDiffFilePaths);
+      importedFilePaths.put(side, new HashSet<>());
+      allDiffFilePaths.addAll(sideDiffFilePaths);
+    }
+    if (allDiffFilePaths.isEmpty()) {
+      return;
+    }
+
+    walkAllSides(
+        PathFilterGroup.createFromStrings(allDiffFilePaths),
+        (side, pathString) -> diffFilePaths.get(side).contains(pathString),
+        importedFilePaths);
+
+    if (copyImportedFiles) {
+      Map<Side, PathSuffixGroupFilter> importFilters = new EnumMap<>(Side.class);
+      Set<String> allImportedFilePaths = new HashSet<>();
+      for (Side side : SIDES) {
+        // to tolerate import file paths, which is relative to source folder instead of repo root
+        Set<String> sideImportedFilePaths =
+            importedFilePaths.get(side).stream()
+                .map(Utils::formatPathSeparator)
+                .collect(Collectors.toSet());
+        importFilters.put(side, new PathSuffixGroupFilter(sideImportedFilePaths));
+        allImportedFilePaths.addAll(sideImportedFilePaths);
+      }
+      if (!allImportedFilePaths.isEmpty()) {
+        walkAllSides(
+            new PathSuffixGroupFilter(allImportedFilePaths),
+            (side, pathString) -> importFilters.get(side).matches(pathString),
+            null);
+      }
+    }
+  }
+
+  /**
+   * Walk the commit trees of all sides together, and collect the files wanted by each side, blobs
+   * identical in several sides are only loaded once
+   *
+   * @param filter files to visit
+   * @param isWanted whether a side wants the file at the path
+   * @param importedFilePaths to add file paths imported by the collected files, can be null
+   * @throws Exception
+   */
+  private void walkAllSides(
+      TreeFilter filter,
+      BiPredicate<Side, String> isWanted,
+      Map<Side, Set<String>> importedFilePaths)
+      throws Exception {
+    try (RevWalk revWalk = new RevWalk(repository);
+        TreeWalk treeWalk = new TreeWalk(repository)) {
+      addSideTrees(treeWalk, revWalk);
+      treeWalk.setRecursive(true);
+      treeWalk.setFilter(filter);
+      Map<ObjectId, byte[]> contents = new HashMap<>();
+      while (treeWalk.next()) {
+        String pathString = treeWalk.getPathString();
+        for (int i = 0; i < SIDES.size(); ++i) {
+          Side side = SIDES.get(i);
+          if (treeWalk.getFileMode(i).getObjectType() != Constants.OBJ_BLOB
+              || !isWanted.test(side, pathString)) {
+            continue;
+          }
+          byte[] content = contents.get(treeWalk.getObjectId(i));
+          if (content == null) {
+            content = repository.open(treeWalk.getObjectId(i)).getBytes();
+            contents.put(treeWalk.getObjectId(i), content);
+          }
+          List<String> imported =
+              collectFile(
+                  pathString,
+                  content,
+                  getSideCollectedFilePath(side),
+                  collectedSources.computeIfAbsent(side, key -> new HashMap<>()));
+          if (importedFilePaths != null) {
+            importedFilePaths.get(side).addAll(imported);
+          }
+        }
+      }
+    }
+  }
+
   /**
    * Collect related source files to process once for one side
    *
@@ -124,29 +375,72 @@ public class SourceFileCollector {
    */
   public void collectFilesForOneSide(Side side, List<SimpleDiffEntry> diffEntries)
       throws Exception {
-    String sideCommitID = null;
-    switch (side) {
-      case OURS:
-        sideCommitID = mergeScenario.oursCommitID;
-        break;
-      case BASE:
-        sideCommitID = mergeScenario.baseCommitID;
-        break;
-      case THEIRS:
-        sideCommitID = mergeScenario.theirsCommitID;
-        break;
-    }
+    String sideCommitID = getCommitID(side);
     if (sideCommitID != null) {
       //      ArrayList<SourceFile> javaSourceFiles = scanJavaFiles(sideCommitID);
-      String sideCollectedFilePath =
-          collectedFilePath + side.toString().toLowerCase() + File.separator;
+      String sideCollectedFilePath = getSideCollectedFilePath(side);
       if (diffEntries != null) {
         //        collect(javaSourceFiles, diffEntries, sideCollectedFilePath);
-        collect2(diffEntries, sideCollectedFilePath, sideCommitID);
+        collect2(
+            diffEntries,
+            sideCollectedFilePath,
+            sideCommitID,
+            collectedSources.computeIfAbsent(side, key -> new HashMap<>()));
       }
     }
   }
 
+  /**
+   * Add the commit trees of all sides to the walk in the order of SIDES, an empty tree for a
+   * missing side
+   *
+   * @param treeWalk
+   * @param revWalk
+   * @throws Exception
+   */
+  private void addSideTrees(TreeWalk treeWalk, RevWalk revWalk) throws Exception {
+    for (Side side : SIDES) {
+      String sideCommitID = getCommitID(side);
+      if (sideCommitID != null) {
+        treeWalk.addTree(revWalk.parseCommit(repository.resolve(sideCommitID)).getTree());
+      } else {
+        treeWalk.addTree(new EmptyTreeIterator());
+      }
+    }
+  }
+
+  private String getCommitID(Side side) {
+    switch (side) {
+      case OURS:
+        return mergeScenario.oursCommitID;
+      case BASE:
+        return mergeScenario.baseCommitID;
+      case THEIRS:
+        return mergeScenario.theirsCommitID;
+      default:
+        return null;
+    }
+  }
+
+  private String getSideCollectedFilePath(Side side) {
+    return collectedFilePath + side.toString().toLowerCase() + File.separator;
+  }
+
+  /**
+   * Get the path of the diff file known to git, e.g.
+   * src/main/java/edu/pku/intellimerge/core/GraphBuilder.java
+   *
+   * @param diffEntry
+   * @return the new path if the file is added, else the old path
+   */
+  private String getRelativePath(SimpleDiffEntry diffEntry) {
+    if (diffEntry.getChangeType().equals(DiffEntry.ChangeType.ADD)) {
+      return diffEntry.getNewPath();
+    } else {
+      return diffEntry.getOldPath();
+    }
+  }
+
   /**
    * Get diff java files between base and ours/theirs commit
    *
@@ -218,24 +512,21 @@ public class SourceFileCollector {
    * @param diffEntries
    * @param sideCollectedFilePath
    * @param sideCommitID
+   * @param sideSources to keep file contents if not collected to files
    * @throws Exception
    */
   private void collect2(
-      List<SimpleDiffEntry> diffEntries, String sideCollectedFilePath, String sideCommitID)
+      List<SimpleDiffEntry> diffEntries,
+      String sideCollectedFilePath,
+      String sideCommitID,
+      Map<String, byte[]> sideSources)
       throws Exception {
     // generate file relative paths
     List<String> diffFilePaths = new ArrayList<>();
     List<String> importedFilePaths = new ArrayList<>();
     for (SimpleDiffEntry diffEntry : diffEntries) {
       // relative path known to git
-      String relativePath = "";
-      if (diffEntry.getChangeType().equals(DiffEntry.ChangeType.ADD)) {
-        relativePath = diffEntry.getNewPath();
-      } else {
-        // e.g. src/main/java/edu/pku/intellimerge/core/GraphBuilder.java
-        relativePath = diffEntry.getOldPath();
-      }
-      diffFilePaths.add(relativePath);
+      diffFilePaths.add(getRelativePath(diffEntry));
     }
     // get file content with ObjectLoader
     try (RevWalk revWalk = new RevWalk(repository)) {
@@ -243,9 +534,9 @@ public class SourceFileCollector {
       RevCommit commit = revWalk.parseCommit(commitObj);
       // get the content of changed file before and after changing, return file paths imported by
       // them
-      importedFilePaths = generateFiles(diffFilePaths, commit, sideCollectedFilePath);
+      importedFilePaths = generateFiles(diffFilePaths, commit, sideCollectedFilePath, sideSources);
       if (copyImportedFiles && !importedFilePaths.isEmpty()) {
-        generateFiles(importedFilePaths, commit, sideCollectedFilePath);
+        generateFiles(importedFilePaths, commit, sideCollectedFilePath, sideSources);
       }
     }
   }
@@ -256,11 +547,16 @@ public class SourceFileCollector {
    * @param filePaths
    * @param commit
    * @param sideCollectedFilePath
+   * @param sideSources
    * @return
    * @throws Exception
    */
   private List<String> generateFiles(
-      List<String> filePaths, RevCommit commit, String sideCollectedFilePath) throws Exception {
+      List<String> filePaths,
+      RevCommit commit,
+      String sideCollectedFilePath,
+      Map<String, byte[]> sideSources)
+      throws Exception {
     List<String> importedFilePaths = new ArrayList<>();
     if (!filePaths.isEmpty()) {
       try (TreeWalk treeWalk = new TreeWalk(repository)) {
@@ -273,28 +569,9 @@ public class SourceFileCollector {
             // to tolerate import file paths, which is relative to source folder instead of repo
             // root
             if (pathString.endsWith(Utils.formatPathSeparator(path))) {
-              ObjectId objectId = treeWalk.getObjectId(0);
-              ObjectLoader loader = repository.open(objectId);
-              // write content to file
-              StringWriter writer = new StringWriter();
-              IOUtils.copy(loader.openStream(), writer, Charset.defaultCharset());
-              Utils.writeContent(
-                  sideCollectedFilePath + File.separator + pathString, writer.toString(), false);
-              // collect imported files
-              if (copyImportedFiles) {
-                String[] lines = writer.toString().split("\n");
-                for (String line : lines) {
-                  if (line.startsWith("import")) {
-                    String importedFileRelativePath =
-                        line.replace("import ", "")
-                            .replace("static", "")
-                            .replace(".", File.separator)
-                            .replace(";", ".java")
-                            .trim();
-                    importedFilePaths.add(importedFileRelativePath);
-                  }
-                }
-              }
+              byte[] content = repository.open(treeWalk.getObjectId(0)).getBytes();
+              importedFilePaths.addAll(
+                  collectFile(pathString, content, sideCollectedFilePath, sideSources));
               break;
             }
           }
@@ -304,6 +581,62 @@ public class SourceFileCollector {
     return importedFilePaths;
   }
 
+  /**
+   * Save the content of one file to be analyzed, to disk or in memory
+   *
+   * @param pathString path of the file in the repository
+   * @param content
+   * @param sideCollectedFilePath
+   * @param sideSources
+   * @return file paths imported by the file, relative to the source folder
+   */
+  private List<String> collectFile(
+      String pathString,
+      byte[] content,
+      String sideCollectedFilePath,
+      Map<String, byte[]> sideSources) {
+    List<String> importedFilePaths = new ArrayList<>();
+    if (collectToFiles) {
+      // write content to file
+      Utils.writeContent(
+          sideCollectedFilePath + File.separator + pathString,
+          new String(content, StandardCharsets.UTF_8),
+          false);
+    } else {
+      // keep the blob content in memory
+      sideSources.put(pathString, content);
+    }
+    // collect imported files
+    if (copyImportedFiles) {
+      importedFilePaths.addAll(
+          getImportedFilePaths(new String(content, StandardCharsets.UTF_8)));
+    }
+    return importedFilePaths;
+  }
+
+  /**
+   * Get file paths imported by the file content, relative to the source folder
+   *
+   * @param content
+   * @return
+   */
+  private List<String> getImportedFilePaths(String content) {
+    List<String> importedFilePaths = new ArrayList<>();
+    String[] lines = content.split("\n");
+    for (String line : lines) {
+      if (line.startsWith("import")) {
+        String importedFileRelativePath =
+            line.replace("import ", "")
+                .replace("static", "")
+                .replace(".", File.separator)
+                .replace(";", ".java")
+                .trim();
+        importedFilePaths.add(importedFileRelativePath);
+      }
+    }
+    return importedFilePaths;
+  }
+
   /**
    * Copy diff java files and imported java files to the given path, for later process By checking
    * out the repo and copy files
@@ -2,7 +2,12 @@ package edu.pku.intellimerge.model;
 
 import edu.pku.intellimerge.model.constant.EdgeType;
 
-public class SemanticEdge {
+import java.io.Serializable;
+import java.util.Objects;
+
+public class SemanticEdge implements Serializable {
+  private static final long serialVersionUID = 1L;
+
   private Integer edgeID;
   private EdgeType edgeType;
   private Integer weight; // how many times the same edge
@@ -101,8 +106,41 @@ public class SemanticEdge {
     return result;
   }
 
+  /**
+   * Two edges are equal if they have the same type and ends, as their toString()
+   *
+   * @param o
+   * @return
+   */
   @Override
   public boolean equals(Object o) {
-    return (o instanceof SemanticEdge) && (toString().equals(o.toString()));
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof SemanticEdge)) {
+      return false;
+    }
+    SemanticEdge edge = (SemanticEdge) o;
+    return edgeType == edge.edgeType
+        && isSameEnd(source, edge.source)
+        && isSameEnd(target, edge.target);
+  }
+
+  /**
+   * Compare two ends by node type label and original signature, as SemanticNode.toString()
+   *
+   * @param node1
+   * @param node2
+   * @return
+   */
+  private static boolean isSameEnd(SemanticNode node1, SemanticNode node2) {
+    if (node1 == node2) {
+      return true;
+    }
+    if (node1 == null || node2 == null) {
+      return false;
+    }
+    return node1.getNodeType().label.equals(node2.getNodeType().label)
+        && Objects.equals(node1.getOriginalSignature(), node2.getOriginalSignature());
   }
 }
@@ -3,15 +3,24 @@ package edu.pku.intellimerge.model;
 import com.github.javaparser.Range;
 import edu.pku.intellimerge.model.constant.NodeType;
 import edu.pku.intellimerge.model.mapping.NodeContext;
+import edu.pku.intellimerge.util.Utils;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
-public abstract class SemanticNode {
+public abstract class SemanticNode implements Cloneable, Serializable {
+  // fixed so that recompiling does not invalidate saved fragments, see FragmentStore
+  private static final long serialVersionUID = 1L;
+
   // context info
-  public NodeContext context;
+  public transient NodeContext context;
   // mainly for preserving the original format
   public int followingEOL = 1;
   // self attributes
@@ -33,9 +42,21 @@ public abstract class SemanticNode {
   private List<String> modifiers;
   // whether the node is defined inside the graph or not
   private boolean isInternal;
-  private Optional<Range> range;
-
-  public SemanticNode() {}
+  // Range is not serializable, see writeObject and readObject
+  private transient Optional<Range> range;
+  // hash of nodeType and qualifiedName, updated with them since nodes are compared very often
+  private transient int hash;
+  // signature without whitespaces and its 64-bit fingerprint with nodeType, updated with them
+  // since top-down matching joins nodes by them
+  private transient String normalizedSignature;
+  private transient long signatureFingerprint;
+  // hash of the printed content of the subtree, computed by the graph builder, 0 if not computed
+  private transient long subtreeHash;
+
+  public SemanticNode() {
+    updateHash();
+    updateSignature();
+  }
 
   public SemanticNode(
       Integer nodeID,
@@ -60,6 +81,8 @@ public abstract class SemanticNode {
     this.children = new ArrayList<>();
     this.isInternal = true;
     this.range = range;
+    updateHash();
+    updateSignature();
   }
 
   public SemanticNode(
@@ -85,6 +108,8 @@ public abstract class SemanticNode {
     this.modifiers = modifiers;
     this.children = new ArrayList<>();
     this.range = range;
+    updateHash();
+    updateSignature();
   }
 
   public boolean isInternal() {
@@ -99,6 +124,10 @@ public abstract class SemanticNode {
     return nodeID;
   }
 
+  public void setNodeID(Integer nodeID) {
+    this.nodeID = nodeID;
+  }
+
   public List<String> getAnnotations() {
     return annotations;
   }
@@ -115,6 +144,24 @@ public abstract class SemanticNode {
     return nodeType;
   }
 
+  public long getSubtreeHash() {
+    return subtreeHash;
+  }
+
+  public void setSubtreeHash(long subtreeHash) {
+    this.subtreeHash = subtreeHash;
+  }
+
+  /**
+   * Whether the subtree has the same content as the other one, by their subtree hashes
+   *
+   * @param node
+   * @return false if any hash is not computed
+   */
+  public boolean hasSameSubtree(SemanticNode node) {
+    return subtreeHash != 0 && subtreeHash == node.subtreeHash;
+  }
+
   public Integer getLevel() {
     return nodeType.level;
   }
@@ -133,6 +180,8 @@ public abstract class SemanticNode {
 
   public void setQualifiedName(String qualifiedName) {
     this.qualifiedName = qualifiedName;
+    updateHash();
+    updateSignature();
   }
 
   public String getOriginalSignature() {
@@ -141,6 +190,7 @@ public abstract class SemanticNode {
 
   public void setOriginalSignature(String originalSignature) {
     this.originalSignature = originalSignature;
+    updateSignature();
   }
 
   public List<String> getModifiers() {
@@ -173,16 +223,44 @@ public abstract class SemanticNode {
     final int prime = 31;
     int result = 1;
     result = prime * result + ((getNodeType() == null) ? 0 : getNodeType().hashCode());
-    result =
-        prime * result
-            + ((getSignature() == null) ? 0 : getSignature().replaceAll("\\s", "").hashCode());
+    result = prime * result + ((normalizedSignature == null) ? 0 : normalizedSignature.hashCode());
     return result;
   }
 
+  public String getNormalizedSignature() {
+    return normalizedSignature;
+  }
+
+  /**
+   * 64-bit fingerprint of nodeType and the signature without whitespaces, nodes with different
+   * signatures may still have the same fingerprint, so check with hasSameSignature()
+   *
+   * @return
+   */
+  public long getSignatureFingerprint() {
+    return signatureFingerprint;
+  }
+
+  /**
+   * Whether the two nodes have the same nodeType and signature ignoring whitespaces
+   *
+   * @param node
+   * @return
+   */
+  public boolean hasSameSignature(SemanticNode node) {
+    return signatureFingerprint == node.signatureFingerprint
+        && nodeType == node.nodeType
+        && Objects.equals(normalizedSignature, node.normalizedSignature);
+  }
+
   public Boolean needToMerge() {
     return needToMerge;
   }
 
+  public void setNeedToMerge(Boolean needToMerge) {
+    this.needToMerge = needToMerge;
+  }
+
   /**
    * Clone the object without children and edges
    *
@@ -197,6 +275,36 @@ public abstract class SemanticNode {
    */
   public abstract SemanticNode deepClone();
 
+  /**
+   * Copy the node with all its attributes (of the actual node class), but without parent, children
+   * and context, attribute values are shared with the original node
+   *
+   * @return
+   */
+  public SemanticNode copy() {
+    try {
+      SemanticNode copy = (SemanticNode) super.clone();
+      copy.parent = null;
+      copy.children = new ArrayList<>();
+      copy.context = null;
+      return copy;
+    } catch (CloneNotSupportedException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    Utils.writeRange(out, range);
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    range = Utils.readRange(in);
+    updateHash();
+    updateSignature();
+  }
+
   /** A series of methods to operate the tree structure */
   public SemanticNode getParent() {
     return parent;
@@ -281,15 +389,60 @@ public abstract class SemanticNode {
    */
   @Override
   public int hashCode() {
+    return hash;
+  }
+
+  private void updateHash() {
     final int prime = 31;
     int result = 1;
     result = prime * result + ((nodeType == null) ? 0 : nodeType.hashCode());
     result = prime * result + ((qualifiedName == null) ? 0 : qualifiedName.hashCode());
-    return result;
+    hash = result;
+  }
+
+  private void updateSignature() {
+    String signature = getSignature();
+    if (signature == null) {
+      normalizedSignature = null;
+    } else {
+      // the same as replaceAll("\\s", "")
+      StringBuilder builder = new StringBuilder(signature.length());
+      for (int i = 0; i < signature.length(); ++i) {
+        char c = signature.charAt(i);
+        if (c != ' ' && c != '\t' && c != '\n' && c != '\u000B' && c != '\f' && c != '\r') {
+          builder.append(c);
+        }
+      }
+      normalizedSignature = builder.toString();
+    }
+    // FNV-1a of the node type and the chars
+    long fingerprint = 0xcbf29ce484222325L;
+    fingerprint = (fingerprint ^ (nodeType == null ? -1 : nodeType.ordinal())) * 0x100000001b3L;
+    if (normalizedSignature != null) {
+      for (int i = 0; i < normalizedSignature.length(); ++i) {
+        fingerprint = (fingerprint ^ normalizedSignature.charAt(i)) * 0x100000001b3L;
+      }
+    }
+    signatureFingerprint = fingerprint;
   }
 
+  /**
+   * Two nodes are equal if they have the same type and qualified name, as their asString()
+   *
+   * @param o
+   * @return
+   */
   @Override
   public boolean equals(Object o) {
-    return (o instanceof SemanticNode) && (asString().equals(((SemanticNode) o).asString()));
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof SemanticNode)) {
+      return false;
+    }
+    SemanticNode node = (SemanticNode) o;
+    return hash == node.hash
+        && nodeType == node.nodeType
+        && Objects.equals(qualifiedName, node.qualifiedName);
   }
 }
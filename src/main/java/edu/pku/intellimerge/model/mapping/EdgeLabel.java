@@ -1,5 +1,8 @@
 package edu.pku.intellimerge.model.mapping;
 
+import edu.pku.intellimerge.model.constant.EdgeType;
+import edu.pku.intellimerge.model.constant.NodeType;
+
 public enum EdgeLabel {
   CONTAIN_PACKAGE(0),
   CONTAIN_COMPILATION_UNIT(1),
@@ -27,12 +30,44 @@ public enum EdgeLabel {
   INITIALIZE_CLASS(23),
   DEFINE_ANNOTATION(24);
 
+  // index of the label named as EDGETYPE_NODETYPE, -1 if no such label
+  private static final int[][] INDEX_TABLE =
+      new int[EdgeType.values().length][NodeType.values().length];
+
+  static {
+    for (EdgeType edgeType : EdgeType.values()) {
+      for (NodeType nodeType : NodeType.values()) {
+        INDEX_TABLE[edgeType.ordinal()][nodeType.ordinal()] = -1;
+      }
+    }
+    for (EdgeLabel label : EdgeLabel.values()) {
+      for (EdgeType edgeType : EdgeType.values()) {
+        for (NodeType nodeType : NodeType.values()) {
+          if (label.name().equals(edgeType.name() + "_" + nodeType.name())) {
+            INDEX_TABLE[edgeType.ordinal()][nodeType.ordinal()] = label.getIndex();
+          }
+        }
+      }
+    }
+  }
+
   private Integer index;
 
   EdgeLabel(Integer index) {
     this.index = index;
   }
 
+  /**
+   * Get the label index of an edge with the type of the edge and its target node, in constant time
+   *
+   * @param edgeType
+   * @param nodeType
+   * @return -1 if no such label
+   */
+  public static int indexOf(EdgeType edgeType, NodeType nodeType) {
+    return INDEX_TABLE[edgeType.ordinal()][nodeType.ordinal()];
+  }
+
   public Integer getIndex() {
     return index;
   }
@@ -1,25 +1,28 @@
 package edu.pku.intellimerge.model.mapping;
 
 import edu.pku.intellimerge.model.SemanticEdge;
+import edu.pku.intellimerge.util.SimilarityCache;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
 public class NodeContext {
   private Set<SemanticEdge> incomingEdges;
   private Set<SemanticEdge> outgoingEdges;
 
-  // use map to save vectors for random access
-  private Map<Integer, Integer> incomingVector = new HashMap<>();
-  private Map<Integer, Integer> outgoingVector = new HashMap<>();
+  // weights of edges indexed by EdgeLabel
+  private int[] incomingVector;
+  private int[] outgoingVector;
+
+  // ids of the qualified names of neighbours, computed on first use with the ids of a cache
+  private volatile NeighbourIds neighbourIds;
 
   public NodeContext(
       Set<SemanticEdge> incomingEdges,
       Set<SemanticEdge> outgoingEdges,
-      Map<Integer, Integer> incomingVector,
-      Map<Integer, Integer> outgoingVector) {
+      int[] incomingVector,
+      int[] outgoingVector) {
     this.incomingEdges = incomingEdges;
     this.outgoingEdges = outgoingEdges;
     this.incomingVector = incomingVector;
@@ -29,10 +32,8 @@ public class NodeContext {
   public NodeContext(Set<SemanticEdge> incomingEdges, Set<SemanticEdge> outgoingEdges) {
     this.incomingEdges = incomingEdges;
     this.outgoingEdges = outgoingEdges;
-    for (Integer i = 0; i < EdgeLabel.values().length; i++) {
-      this.incomingVector.put(i, 0);
-      this.outgoingVector.put(i, 0);
-    }
+    this.incomingVector = new int[EdgeLabel.values().length];
+    this.outgoingVector = new int[EdgeLabel.values().length];
   }
 
   public Set<SemanticEdge> getIncomingEdges() {
@@ -45,22 +46,72 @@ public class NodeContext {
 
   public void setOutgoingEdges(Set edges) {
     this.outgoingEdges = edges;
+    this.neighbourIds = null;
   }
 
-  public Map<Integer, Integer> getIncomingVector() {
+  public int[] getIncomingVector() {
     return incomingVector;
   }
 
-  public Map<Integer, Integer> getOutgoingVector() {
+  public int[] getOutgoingVector() {
     return outgoingVector;
   }
 
-  public void putIncomingVector(Integer key, Integer value) {
-    this.incomingVector.put(key, value);
+  /**
+   * Get the ids of the qualified names of sources of incoming edges
+   *
+   * @param cache the cache that numbers the qualified names
+   * @return sorted distinct ids
+   */
+  public int[] getIncomingIds(SimilarityCache cache) {
+    return getNeighbourIds(cache).incoming;
   }
 
-  public void putOutgoingVector(Integer key, Integer value) {
-    this.outgoingVector.put(key, value);
+  /**
+   * Get the ids of the qualified names of targets of outgoing edges
+   *
+   * @param cache the cache that numbers the qualified names
+   * @return sorted distinct ids
+   */
+  public int[] getOutgoingIds(SimilarityCache cache) {
+    return getNeighbourIds(cache).outgoing;
+  }
+
+  private NeighbourIds getNeighbourIds(SimilarityCache cache) {
+    NeighbourIds ids = neighbourIds;
+    // ids from another cache are in another id space
+    if (ids == null || ids.cache != cache) {
+      int[] incoming =
+          incomingEdges.stream()
+              .mapToInt(edge -> cache.getNameId(edge.getSource().getQualifiedName()))
+              .toArray();
+      int[] outgoing =
+          outgoingEdges.stream()
+              .mapToInt(edge -> cache.getNameId(edge.getTarget().getQualifiedName()))
+              .toArray();
+      ids = new NeighbourIds(cache, sortDistinct(incoming), sortDistinct(outgoing));
+      neighbourIds = ids;
+    }
+    return ids;
+  }
+
+  private static int[] sortDistinct(int[] ids) {
+    Arrays.sort(ids);
+    int size = 0;
+    for (int i = 0; i < ids.length; ++i) {
+      if (size == 0 || ids[size - 1] != ids[i]) {
+        ids[size++] = ids[i];
+      }
+    }
+    return size == ids.length ? ids : Arrays.copyOf(ids, size);
+  }
+
+  public void addIncomingWeight(int index, int weight) {
+    this.incomingVector[index] += weight;
+  }
+
+  public void addOutgoingWeight(int index, int weight) {
+    this.outgoingVector[index] += weight;
   }
 
   public NodeContext join(NodeContext context) {
@@ -71,16 +122,27 @@ public class NodeContext {
     combinedOutgoingEdges.addAll(this.outgoingEdges);
     combinedOutgoingEdges.addAll(context.getOutgoingEdges());
 
-    Map<Integer, Integer> combinedInVec = new HashMap<>(this.incomingVector);
-    Map<Integer, Integer> combinedOutVec = new HashMap<>(this.outgoingVector);
-    context
-        .getIncomingVector()
-        .forEach((key, value) -> combinedInVec.merge(key, value, (v1, v2) -> (v1 + v2)));
-    context
-        .getOutgoingVector()
-        .forEach((key, value) -> combinedOutVec.merge(key, value, (v1, v2) -> (v1 + v2)));
+    int[] combinedInVec = new int[incomingVector.length];
+    int[] combinedOutVec = new int[outgoingVector.length];
+    for (int i = 0; i < combinedInVec.length; ++i) {
+      combinedInVec[i] = this.incomingVector[i] + context.getIncomingVector()[i];
+      combinedOutVec[i] = this.outgoingVector[i] + context.getOutgoingVector()[i];
+    }
 
     return new NodeContext(
         combinedIncomingEdges, combinedOutgoingEdges, combinedInVec, combinedOutVec);
   }
+
+  /** Immutable neighbour ids with the cache that numbered them, to be replaced as a whole */
+  private static class NeighbourIds {
+    private final SimilarityCache cache;
+    private final int[] incoming;
+    private final int[] outgoing;
+
+    NeighbourIds(SimilarityCache cache, int[] incoming, int[] outgoing) {
+      this.cache = cache;
+      this.incoming = incoming;
+      this.outgoing = outgoing;
+    }
+  }
 }
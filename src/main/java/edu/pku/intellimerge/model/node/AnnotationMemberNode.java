@@ -9,6 +9,8 @@ import java.util.List;
 import java.util.Optional;
 
 public class AnnotationMemberNode extends TerminalNode {
+  private static final long serialVersionUID = 1L;
+
   public AnnotationMemberNode(
       Integer nodeID,
       Boolean needToMerge,
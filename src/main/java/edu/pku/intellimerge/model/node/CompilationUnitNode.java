@@ -5,6 +5,8 @@ import edu.pku.intellimerge.model.constant.NodeType;
 import java.util.Set;
 
 public class CompilationUnitNode extends CompositeNode {
+  private static final long serialVersionUID = 1L;
+
   private String packageStatement;
   private Set<String> importStatements; // ordered, so use LinkedHashSet
   private String fileName;
@@ -9,6 +9,7 @@ import java.util.List;
 import java.util.Optional;
 
 public class CompositeNode extends SemanticNode {
+  private static final long serialVersionUID = 1L;
 
   // prefix strings before '{'
   public String curlyBracePrefix = "";
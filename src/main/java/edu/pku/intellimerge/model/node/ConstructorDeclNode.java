@@ -10,6 +10,8 @@ import java.util.Optional;
 
 /** access == public, no return type */
 public class ConstructorDeclNode extends TerminalNode {
+  private static final long serialVersionUID = 1L;
+
   private String constructorName; // signature
 
   public ConstructorDeclNode(
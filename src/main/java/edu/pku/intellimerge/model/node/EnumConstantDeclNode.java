@@ -9,6 +9,8 @@ import java.util.List;
 import java.util.Optional;
 
 public class EnumConstantDeclNode extends TerminalNode {
+  private static final long serialVersionUID = 1L;
+
   // e.g.   CONTAIN(0, true, "contains"), // physical relation
   private String name;
   private List<String> arguments;
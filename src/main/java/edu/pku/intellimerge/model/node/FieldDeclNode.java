@@ -8,6 +8,8 @@ import java.util.List;
 import java.util.Optional;
 
 public class FieldDeclNode extends TerminalNode {
+  private static final long serialVersionUID = 1L;
+
   private String access;
   private String fieldType;
   private String fieldName;
@@ -8,6 +8,8 @@ import java.util.ArrayList;
 import java.util.Optional;
 
 public class InitializerDeclNode extends TerminalNode {
+  private static final long serialVersionUID = 1L;
+
   // instance initialization block --> false, static initialization block --> true
   private boolean isStatic;
 
@@ -9,6 +9,8 @@ import java.util.List;
 import java.util.Optional;
 
 public class MethodDeclNode extends TerminalNode {
+  private static final long serialVersionUID = 1L;
+
   private String access;
   private List<String> typeParameters;
   private String returnType;
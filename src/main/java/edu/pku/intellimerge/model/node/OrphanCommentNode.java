@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import java.util.Optional;
 
 public class OrphanCommentNode extends SemanticNode {
+  private static final long serialVersionUID = 1L;
 
   public OrphanCommentNode(
       Integer nodeID,
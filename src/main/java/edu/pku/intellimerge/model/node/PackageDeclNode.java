@@ -7,6 +7,8 @@ import java.util.List;
 import java.util.Optional;
 
 public class PackageDeclNode extends CompositeNode {
+  private static final long serialVersionUID = 1L;
+
   private String packageName;
   private List<String> packageNameHierachy; // qualified_package_name.split(".").remove(";")
 
@@ -9,6 +9,8 @@ import java.util.Optional;
 
 /** Class or Interface Declaration */
 public class TypeDeclNode extends CompositeNode {
+  private static final long serialVersionUID = 1L;
+
   private String access; // can be empty for most inner class
   private String type; // annotation/class/interface/enum
   private String typeName;
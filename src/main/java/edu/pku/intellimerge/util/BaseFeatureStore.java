@@ -0,0 +1,46 @@
+package edu.pku.intellimerge.util;
+
+import edu.pku.intellimerge.model.SemanticEdge;
+import edu.pku.intellimerge.model.SemanticNode;
+import org.jgrapht.Graph;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Features of the base graph computed once and shared by the matchers of both sides, which can
+ * read it concurrently: the base nodes to join by signature are collected eagerly and never
+ * change, while the string profiles, context ids and body trees are computed on first use in the
+ * thread-safe cache
+ */
+public class BaseFeatureStore {
+  // base nodes that need to merge with distinct signatures, in the order of the graph
+  private final List<SemanticNode> signatureNodes;
+  private final SimilarityCache cache;
+
+  public BaseFeatureStore(Graph<SemanticNode, SemanticEdge> baseGraph) {
+    this.cache = new SimilarityCache();
+    List<SemanticNode> nodes = new ArrayList<>();
+    SignatureIndex.build(
+        baseGraph.vertexSet().stream()
+            .filter(SemanticNode::needToMerge)
+            .collect(Collectors.toList()),
+        nodes);
+    this.signatureNodes = Collections.unmodifiableList(nodes);
+  }
+
+  /**
+   * Get the base nodes that need to merge, the first one of nodes with the same signature
+   *
+   * @return
+   */
+  public List<SemanticNode> getSignatureNodes() {
+    return signatureNodes;
+  }
+
+  public SimilarityCache getCache() {
+    return cache;
+  }
+}
@@ -0,0 +1,263 @@
+package edu.pku.intellimerge.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One work-stealing pool shared by all phases (parsing, building, matching and merging), instead
+ * of a fixed thread pool per phase, so that phases and concurrent merges do not oversubscribe the
+ * cores
+ *
+ * <p>Tasks submitted from outside the pool are bounded by the max number of pending tasks, the
+ * submitter blocks until earlier tasks finish. Tasks running in the pool can fork nested tasks
+ * (e.g. parallel streams) freely, which run in the same pool and never block on the bound.
+ */
+public class PipelineScheduler {
+  private static final Logger logger = LoggerFactory.getLogger(PipelineScheduler.class);
+  // interval to sample the number of active threads during phases
+  private static final long SAMPLE_INTERVAL_MS = 5L;
+  private static PipelineScheduler defaultScheduler;
+
+  private ForkJoinPool pool;
+  private int parallelism;
+  private Semaphore pendingTasks;
+  private AtomicLong submittedCount = new AtomicLong();
+  private ScheduledExecutorService sampler;
+
+  /**
+   * @param parallelism number of worker threads
+   * @param maxPendingTasks max number of tasks submitted from outside and not finished yet
+   */
+  public PipelineScheduler(int parallelism, int maxPendingTasks) {
+    this.parallelism = Math.max(1, parallelism);
+    this.pool =
+        new ForkJoinPool(
+            this.parallelism,
+            pool -> {
+              ForkJoinWorkerThread thread =
+                  ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+              thread.setName("intellimerge-worker-" + thread.getPoolIndex());
+              return thread;
+            },
+            null,
+            false);
+    this.pendingTasks = new Semaphore(Math.max(1, maxPendingTasks));
+  }
+
+  /**
+   * Get the scheduler shared by default, with one thread per available processor
+   *
+   * @return
+   */
+  public static synchronized PipelineScheduler getDefault() {
+    if (defaultScheduler == null) {
+      int processors = Runtime.getRuntime().availableProcessors();
+      defaultScheduler = new PipelineScheduler(processors, processors * 4);
+    }
+    return defaultScheduler;
+  }
+
+  /**
+   * Replace the scheduler shared by default, tasks submitted to the previous one still finish
+   *
+   * @param parallelism
+   * @param maxPendingTasks
+   */
+  public static synchronized void configureDefault(int parallelism, int maxPendingTasks) {
+    if (defaultScheduler != null) {
+      defaultScheduler.shutdown();
+    }
+    defaultScheduler = new PipelineScheduler(parallelism, maxPendingTasks);
+  }
+
+  /**
+   * Submit a task, block if too many tasks are pending, unless called from a task in this pool
+   *
+   * @param task
+   * @param <T>
+   * @return
+   */
+  public <T> Future<T> submit(Callable<T> task) {
+    submittedCount.incrementAndGet();
+    if (isInPool()) {
+      return ForkJoinTask.adapt(task).fork();
+    }
+    pendingTasks.acquireUninterruptibly();
+    try {
+      return pool.submit(
+          () -> {
+            try {
+              return task.call();
+            } finally {
+              pendingTasks.release();
+            }
+          });
+    } catch (RuntimeException e) {
+      pendingTasks.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Run a task in the pool and wait for its result, so that parallel streams inside it use this
+   * pool instead of the common pool
+   *
+   * @param task
+   * @param <T>
+   * @return
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  public <T> T invoke(Callable<T> task) throws ExecutionException, InterruptedException {
+    if (isInPool()) {
+      try {
+        return task.call();
+      } catch (Exception e) {
+        throw new ExecutionException(e);
+      }
+    }
+    return submit(task).get();
+  }
+
+  /**
+   * Unwrap the failure of a task to rethrow it from the caller, the interrupted status is restored
+   *
+   * @param e the exception thrown by waiting for the task
+   * @return the unchecked exception to throw
+   */
+  public static RuntimeException propagate(Exception e) {
+    if (e instanceof InterruptedException) {
+      Thread.currentThread().interrupt();
+      return new IllegalStateException("Interrupted while waiting for the task", e);
+    }
+    Throwable cause = e;
+    while (cause instanceof ExecutionException && cause.getCause() != null) {
+      cause = cause.getCause();
+    }
+    if (cause instanceof RuntimeException) {
+      return (RuntimeException) cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return new IllegalStateException(cause);
+  }
+
+  private boolean isInPool() {
+    return ForkJoinTask.inForkJoinPool() && ForkJoinTask.getPool() == pool;
+  }
+
+  /**
+   * Start measuring the utilization of the pool for one phase, close it to log the statistics,
+   * also when the phase fails, since its sampling task runs until it is closed
+   *
+   * @param name
+   * @return
+   */
+  public Phase startPhase(String name) {
+    return new Phase(name);
+  }
+
+  private synchronized ScheduledExecutorService getSampler() {
+    if (sampler == null) {
+      sampler =
+          Executors.newSingleThreadScheduledExecutor(
+              runnable -> {
+                Thread thread = new Thread(runnable, "intellimerge-pool-sampler");
+                thread.setDaemon(true);
+                return thread;
+              });
+    }
+    return sampler;
+  }
+
+  /** Stop accepting tasks, submitted tasks still finish */
+  public synchronized void shutdown() {
+    pool.shutdown();
+    if (sampler != null) {
+      sampler.shutdown();
+    }
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  public ForkJoinPool getPool() {
+    return pool;
+  }
+
+  /**
+   * Statistics of the pool during one phase: tasks submitted, tasks stolen between workers, and
+   * the average ratio of busy workers, sampled periodically. Overlapping phases (e.g. concurrent
+   * merges) observe the same pool, so their utilization includes each other's tasks.
+   */
+  public class Phase {
+    private String name;
+    private long startTime;
+    private long startSubmitted;
+    private long startSteals;
+    private AtomicLong samples = new AtomicLong();
+    private AtomicLong activeThreads = new AtomicLong();
+    private ScheduledFuture<?> sampling;
+    private boolean closed = false;
+
+    private Phase(String name) {
+      this.name = name;
+      this.startTime = System.nanoTime();
+      this.startSubmitted = submittedCount.get();
+      this.startSteals = pool.getStealCount();
+      this.sampling =
+          getSampler()
+              .scheduleAtFixedRate(
+                  () -> {
+                    activeThreads.addAndGet(pool.getActiveThreadCount());
+                    samples.incrementAndGet();
+                  },
+                  0L,
+                  SAMPLE_INTERVAL_MS,
+                  TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Average ratio of busy workers so far, in [0, 1]
+     *
+     * @return
+     */
+    public double getUtilization() {
+      long count = samples.get();
+      return count == 0 ? 0.0 : (double) activeThreads.get() / (count * parallelism);
+    }
+
+    /** Stop sampling and log the statistics of the phase, only the first call takes effect */
+    public void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      sampling.cancel(false);
+      long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+      logger.info(
+          "({}ms) Phase {}: {} tasks, {} steals, {}% of {} workers busy on average.",
+          elapsed,
+          name,
+          submittedCount.get() - startSubmitted,
+          pool.getStealCount() - startSteals,
+          Math.round(getUtilization() * 100),
+          parallelism);
+    }
+  }
+}
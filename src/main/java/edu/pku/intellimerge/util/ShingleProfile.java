@@ -0,0 +1,82 @@
+package edu.pku.intellimerge.util;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Counts of the 3-shingles (3 consecutive chars) of a string, with whitespaces collapsed, as a
+ * sparse vector sorted by shingle with a precomputed norm, to compute the Cosine similarity of
+ * strings with a merge of two arrays
+ *
+ * <p>The similarity is the same as the Cosine of java-string-similarity with the default k.
+ */
+public class ShingleProfile {
+  private static final int K = 3;
+  private static final Pattern SPACE_REG = Pattern.compile("\\s+");
+
+  // the 3 chars of each shingle packed in the lower 48 bits, in ascending order
+  private long[] shingles;
+  private int[] counts;
+  private double norm;
+
+  public ShingleProfile(String string) {
+    String collapsed = SPACE_REG.matcher(string).replaceAll(" ");
+    int total = Math.max(0, collapsed.length() - K + 1);
+    long[] all = new long[total];
+    for (int i = 0; i < total; ++i) {
+      all[i] =
+          ((long) collapsed.charAt(i) << 32)
+              | ((long) collapsed.charAt(i + 1) << 16)
+              | collapsed.charAt(i + 2);
+    }
+    Arrays.sort(all);
+    // count runs of the same shingle
+    long[] shingles = new long[total];
+    int[] counts = new int[total];
+    int size = 0;
+    for (int i = 0; i < total; ++i) {
+      if (size > 0 && shingles[size - 1] == all[i]) {
+        counts[size - 1]++;
+      } else {
+        shingles[size] = all[i];
+        counts[size] = 1;
+        size++;
+      }
+    }
+    this.shingles = Arrays.copyOf(shingles, size);
+    this.counts = Arrays.copyOf(counts, size);
+    double sum = 0.0;
+    for (int count : this.counts) {
+      sum += 1.0 * count * count;
+    }
+    this.norm = Math.sqrt(sum);
+  }
+
+  /**
+   * Cosine similarity of the two profiles, NaN if any has no shingle
+   *
+   * @param other
+   * @return
+   */
+  public double cosine(ShingleProfile other) {
+    double dotProduct = 0.0;
+    int i = 0;
+    int j = 0;
+    while (i < shingles.length && j < other.shingles.length) {
+      if (shingles[i] < other.shingles[j]) {
+        i++;
+      } else if (shingles[i] > other.shingles[j]) {
+        j++;
+      } else {
+        dotProduct += 1.0 * counts[i] * other.counts[j];
+        i++;
+        j++;
+      }
+    }
+    return dotProduct / (norm * other.norm);
+  }
+
+  public double getNorm() {
+    return norm;
+  }
+}
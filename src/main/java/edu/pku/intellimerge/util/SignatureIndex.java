@@ -0,0 +1,74 @@
+package edu.pku.intellimerge.util;
+
+import edu.pku.intellimerge.model.SemanticNode;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Index of nodes by the 64-bit fingerprint of their normalized signatures, on a primitive long map,
+ * where nodes with the same fingerprint but different signatures are told apart by the strings
+ */
+public class SignatureIndex {
+  // nodes with distinct signatures of each fingerprint, mostly only one
+  private TLongObjectHashMap<List<SemanticNode>> nodes = new TLongObjectHashMap<>();
+
+  /**
+   * Index the nodes with distinct signatures, the first one of nodes with the same signature
+   *
+   * @param nodes
+   * @param distinctNodes the indexed nodes, in order
+   * @return
+   */
+  public static SignatureIndex build(
+      Collection<SemanticNode> nodes, List<SemanticNode> distinctNodes) {
+    SignatureIndex index = new SignatureIndex();
+    for (SemanticNode node : nodes) {
+      if (index.add(node)) {
+        distinctNodes.add(node);
+      }
+    }
+    return index;
+  }
+
+  /**
+   * Add the node if no node with the same signature has been added
+   *
+   * @param node
+   * @return whether the node is added
+   */
+  public boolean add(SemanticNode node) {
+    List<SemanticNode> sameFingerprint = nodes.get(node.getSignatureFingerprint());
+    if (sameFingerprint == null) {
+      sameFingerprint = new ArrayList<>(1);
+      nodes.put(node.getSignatureFingerprint(), sameFingerprint);
+    }
+    for (SemanticNode added : sameFingerprint) {
+      if (added.hasSameSignature(node)) {
+        return false;
+      }
+    }
+    sameFingerprint.add(node);
+    return true;
+  }
+
+  /**
+   * Remove and return the node with the same signature as the given one
+   *
+   * @param node
+   * @return null if there is none
+   */
+  public SemanticNode remove(SemanticNode node) {
+    List<SemanticNode> sameFingerprint = nodes.get(node.getSignatureFingerprint());
+    if (sameFingerprint != null) {
+      for (int i = 0; i < sameFingerprint.size(); ++i) {
+        if (sameFingerprint.get(i).hasSameSignature(node)) {
+          return sameFingerprint.remove(i);
+        }
+      }
+    }
+    return null;
+  }
+}
@@ -1,28 +1,18 @@
 package edu.pku.intellimerge.util;
 
-import com.github.gumtreediff.gen.jdt.JdtTreeGenerator;
 import com.github.gumtreediff.matchers.MappingStore;
 import com.github.gumtreediff.matchers.Matcher;
 import com.github.gumtreediff.matchers.Matchers;
 import com.github.gumtreediff.matchers.SimilarityMetrics;
 import com.github.gumtreediff.tree.ITree;
-import com.github.gumtreediff.tree.TreeContext;
 import edu.pku.intellimerge.model.SemanticNode;
-import edu.pku.intellimerge.model.mapping.EdgeLabel;
 import edu.pku.intellimerge.model.mapping.NodeContext;
 import edu.pku.intellimerge.model.node.CompositeNode;
 import edu.pku.intellimerge.model.node.FieldDeclNode;
 import edu.pku.intellimerge.model.node.TerminalNode;
-import info.debatty.java.stringsimilarity.Cosine;
-import org.eclipse.jdt.core.dom.ASTParser;
-
-import java.io.IOException;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.stream.Collectors;
 
 public class SimilarityAlg {
+  private static final int[] EMPTY_IDS = new int[0];
 
   /**
    * Compute the similarity between two terminal declarations, considering signature as well as
@@ -30,23 +20,44 @@ public class SimilarityAlg {
    *
    * @param n1
    * @param n2
+   * @param cache
    * @return
    */
-  public static double terminal(TerminalNode n1, TerminalNode n2) {
+  public static double terminal(TerminalNode n1, TerminalNode n2, SimilarityCache cache) {
+    return terminal(n1, n2, cache, 0D);
+  }
+
+  /**
+   * Compute the similarity between two terminal declarations, but skip comparing the bodies if the
+   * similarity cannot reach the min similarity anyway
+   *
+   * @param n1
+   * @param n2
+   * @param cache
+   * @param minSimilarity
+   * @return the exact similarity if it reaches the min similarity, otherwise a lower value
+   */
+  public static double terminal(
+      TerminalNode n1, TerminalNode n2, SimilarityCache cache, double minSimilarity) {
     double similarity = 0.0;
     // naive average in all dimensions of context(incoming and outgoing edges)
-    similarity += context(n1.context, n2.context);
+    similarity += context(n1.context, n2.context, cache);
     // naive string similarity of terminal signature
-    similarity += string(n1.getQualifiedName(), n2.getQualifiedName());
-    similarity += string(n1.getOriginalSignature(), n2.getOriginalSignature());
+    similarity += string(n1.getQualifiedName(), n2.getQualifiedName(), cache);
+    similarity += string(n1.getOriginalSignature(), n2.getOriginalSignature(), cache);
     if (n1 instanceof FieldDeclNode && n2 instanceof FieldDeclNode) {
       if (!((FieldDeclNode) n1).getFieldType().equals(((FieldDeclNode) n2).getFieldType())) {
         return 0D;
       } else {
-        similarity += string(n1.getBody(), n2.getBody());
+        similarity += string(n1.getBody(), n2.getBody(), cache);
       }
     } else {
-      similarity += bodyAST(n1.getBody(), n2.getBody());
+      // the body similarity needed to reach the min similarity, with a margin for rounding
+      double minBodySimilarity = minSimilarity * 4 - similarity - 1e-9;
+      if (minBodySimilarity > 1D) {
+        return similarity / 4;
+      }
+      similarity += bodyAST(n1.getBody(), n2.getBody(), cache, minBodySimilarity);
     }
     similarity /= 4;
     return similarity;
@@ -75,17 +86,17 @@ public class SimilarityAlg {
    * @param vector2
    * @return
    */
-  private static double vector(Map<Integer, Integer> vector1, Map<Integer, Integer> vector2) {
+  private static double vector(int[] vector1, int[] vector2) {
     double dotProduct = 0.0;
     double norm1 = 0.0;
     double norm2 = 0.0;
 
-    for (Integer index = 0; index < EdgeLabel.values().length; ++index) {
-      Integer a = vector1.get(index);
-      Integer b = vector2.get(index);
+    for (int index = 0; index < vector1.length; ++index) {
+      int a = vector1[index];
+      int b = vector2[index];
       dotProduct += a * b;
-      norm1 += Math.pow(a, 2);
-      norm2 += Math.pow(b, 2);
+      norm1 += a * a;
+      norm2 += b * b;
     }
     norm1 = (Math.sqrt(norm1));
     norm2 = (Math.sqrt(norm2));
@@ -100,14 +111,15 @@ public class SimilarityAlg {
    *
    * @param n1
    * @param n2
+   * @param cache
    * @return
    */
-  public static double composite(CompositeNode n1, CompositeNode n2) {
+  public static double composite(CompositeNode n1, CompositeNode n2, SimilarityCache cache) {
     double similarity = 0.0;
     // naive average in all dimensions of context(incoming and outgoing edges)
-    similarity += context(n1.context, n2.context);
+    similarity += context(n1.context, n2.context, cache);
     // navie string similarity of terminal signature
-    similarity += string(n1.getQualifiedName(), n2.getQualifiedName());
+    similarity += string(n1.getQualifiedName(), n2.getQualifiedName(), cache);
     similarity /= 2;
     return similarity;
   }
@@ -121,8 +133,31 @@ public class SimilarityAlg {
    * @return
    */
   public static double string(String s1, String s2) {
-    Cosine cosine = new Cosine();
-    return cosine.similarity(s1, s2);
+    if (s1.equals(s2)) {
+      return 1.0;
+    }
+    if (s1.length() < 3 || s2.length() < 3) {
+      return 0.0;
+    }
+    return new ShingleProfile(s1).cosine(new ShingleProfile(s2));
+  }
+
+  /**
+   * Signature textual similarity, with the shingle profiles of strings cached
+   *
+   * @param s1
+   * @param s2
+   * @param cache
+   * @return
+   */
+  public static double string(String s1, String s2, SimilarityCache cache) {
+    if (s1.equals(s2)) {
+      return 1.0;
+    }
+    if (s1.length() < 3 || s2.length() < 3) {
+      return 0.0;
+    }
+    return cache.getProfile(s1).cosine(cache.getProfile(s2));
   }
 
   /**
@@ -131,27 +166,48 @@ public class SimilarityAlg {
    * @return
    */
   public static double context(NodeContext context1, NodeContext context2) {
-    Set<String> targetQNames1 =
-        context1.getIncomingEdges().stream()
-            .map(edge -> edge.getSource().getQualifiedName())
-            .collect(Collectors.toSet());
-    Set<String> targetQNames2 =
-        context2.getIncomingEdges().stream()
-            .map(edge -> edge.getSource().getQualifiedName())
-            .collect(Collectors.toSet());
-
-    double inSimi = jaccard(targetQNames1, targetQNames2);
-
-    targetQNames1 =
-        context1.getOutgoingEdges().stream()
-            .map(edge -> edge.getTarget().getQualifiedName())
-            .collect(Collectors.toSet());
-    targetQNames2 =
-        context2.getOutgoingEdges().stream()
-            .map(edge -> edge.getTarget().getQualifiedName())
-            .collect(Collectors.toSet());
-
-    double outSimi = jaccard(targetQNames1, targetQNames2);
+    return context(context1, context2, new SimilarityCache());
+  }
+
+  /**
+   * Compute the similarity of edges around the vertex, as the Jaccard of the neighbour ids
+   *
+   * @param context1
+   * @param context2
+   * @param cache
+   * @return
+   */
+  public static double context(
+      NodeContext context1, NodeContext context2, SimilarityCache cache) {
+    double inSimi =
+        jaccard(context1.getIncomingIds(cache), EMPTY_IDS, context2.getIncomingIds(cache));
+    double outSimi =
+        jaccard(context1.getOutgoingIds(cache), EMPTY_IDS, context2.getOutgoingIds(cache));
+    return (inSimi + outSimi) / 2;
+  }
+
+  /**
+   * Compute the similarity of edges around the vertex, with the first context joined with another
+   * one, the same as context(context1.join(joined), context2) but without building the join
+   *
+   * @param context1
+   * @param joined
+   * @param context2
+   * @param cache
+   * @return
+   */
+  public static double context(
+      NodeContext context1, NodeContext joined, NodeContext context2, SimilarityCache cache) {
+    double inSimi =
+        jaccard(
+            context1.getIncomingIds(cache),
+            joined.getIncomingIds(cache),
+            context2.getIncomingIds(cache));
+    double outSimi =
+        jaccard(
+            context1.getOutgoingIds(cache),
+            joined.getOutgoingIds(cache),
+            context2.getOutgoingIds(cache));
     return (inSimi + outSimi) / 2;
   }
 
@@ -163,43 +219,87 @@ public class SimilarityAlg {
    * @return
    */
   public static double bodyAST(String body1, String body2) {
-    double similarity = 0D;
-    try {
-      JdtTreeGenerator generator = new JdtTreeGenerator();
-      generator.setKind(ASTParser.K_STATEMENTS);
-      TreeContext baseContext = generator.generateFrom().string(body1);
-      TreeContext othersContext = generator.generateFrom().string(body2);
-      ITree baseRoot = baseContext.getRoot();
-      ITree othersRoot = othersContext.getRoot();
-      Matcher matcher = Matchers.getInstance().getMatcher();
-      MappingStore mappings = matcher.match(baseRoot, othersRoot);
-      similarity = SimilarityMetrics.chawatheSimilarity(baseRoot, othersRoot, mappings);
-      if (Double.isNaN(similarity)) {
-        similarity = 0D;
-      }
-    } catch (IOException e) {
-      e.printStackTrace();
+    return bodyAST(body1, body2, new SimilarityCache(), 0D);
+  }
+
+  /**
+   * Compute terminal body subtree similarity based on gumtree, with the trees of bodies cached
+   *
+   * @param body1
+   * @param body2
+   * @param cache
+   * @param minSimilarity skip matching the trees and return 0 if the similarity must be lower
+   * @return
+   */
+  public static double bodyAST(
+      String body1, String body2, SimilarityCache cache, double minSimilarity) {
+    ITree baseRoot = cache.getBodyTree(body1);
+    ITree othersRoot = cache.getBodyTree(body2);
+    if (baseRoot == null || othersRoot == null) {
+      return 0D;
+    }
+    // the similarity is the ratio of mapped descendants to the descendants of the larger tree
+    int size1 = baseRoot.getMetrics().size - 1;
+    int size2 = othersRoot.getMetrics().size - 1;
+    if (size1 == 0 || size2 == 0) {
+      return 0D;
+    }
+    if (body1.equals(body2)) {
+      // identical trees are mapped completely
+      return 1D;
+    }
+    if ((double) Math.min(size1, size2) / Math.max(size1, size2) < minSimilarity) {
+      return 0D;
+    }
+    Matcher matcher = Matchers.getInstance().getMatcher();
+    MappingStore mappings = matcher.match(baseRoot, othersRoot);
+    double similarity = SimilarityMetrics.chawatheSimilarity(baseRoot, othersRoot, mappings);
+    if (Double.isNaN(similarity)) {
+      similarity = 0D;
     }
     return similarity;
   }
+
   /**
-   * Jaccard = Intersection/Union [0,1]
+   * Jaccard = Intersection/Union [0,1], of the union of two sorted id sets and another one, with a
+   * merge of the three arrays
    *
-   * @param s1
-   * @param s2
+   * @param ids1
+   * @param joined
+   * @param ids2
    * @return
    */
-  private static double jaccard(Set s1, Set s2) {
-    Set<String> union = new HashSet<>();
-    union.addAll(s1);
-    union.addAll(s2);
-    Set<String> intersection = new HashSet<>();
-    intersection.addAll(s1);
-    intersection.retainAll(s2);
-    if (union.size() <= 0) {
+  private static double jaccard(int[] ids1, int[] joined, int[] ids2) {
+    int union = 0;
+    int intersection = 0;
+    int i = 0;
+    int j = 0;
+    int k = 0;
+    while (i < ids1.length || j < joined.length || k < ids2.length) {
+      int left =
+          Math.min(
+              i < ids1.length ? ids1[i] : Integer.MAX_VALUE,
+              j < joined.length ? joined[j] : Integer.MAX_VALUE);
+      int right = k < ids2.length ? ids2[k] : Integer.MAX_VALUE;
+      int id = Math.min(left, right);
+      union++;
+      if (left == id && right == id) {
+        intersection++;
+      }
+      if (i < ids1.length && ids1[i] == id) {
+        i++;
+      }
+      if (j < joined.length && joined[j] == id) {
+        j++;
+      }
+      if (k < ids2.length && ids2[k] == id) {
+        k++;
+      }
+    }
+    if (union <= 0) {
       return 0D;
     } else {
-      return (double) intersection.size() / union.size();
+      return (double) intersection / union;
     }
   }
 
@@ -208,13 +308,14 @@ public class SimilarityAlg {
    *
    * @param f1
    * @param f2
+   * @param cache
    * @return
    */
-  public static double field(FieldDeclNode f1, FieldDeclNode f2) {
+  public static double field(FieldDeclNode f1, FieldDeclNode f2, SimilarityCache cache) {
     double similarity = 0.0;
     String fieldAsString1 = f1.getFieldType() + f1.getFieldName() + f1.getBody();
     String fieldAsString2 = f2.getFieldType() + f2.getFieldName() + f2.getBody();
-    similarity = string(fieldAsString1, fieldAsString2);
+    similarity = string(fieldAsString1, fieldAsString2, cache);
     return similarity;
   }
 }
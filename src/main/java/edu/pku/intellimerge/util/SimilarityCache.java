@@ -0,0 +1,114 @@
+package edu.pku.intellimerge.util;
+
+import com.github.gumtreediff.gen.jdt.JdtTreeGenerator;
+import com.github.gumtreediff.tree.ITree;
+import org.eclipse.jdt.core.dom.ASTParser;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Features of strings computed once during one matching run, shared by the matchers of both sides
+ * so that the features of base nodes are computed only once
+ */
+public class SimilarityCache {
+  // shingle profiles by the string, thread-safe since the two matchers run concurrently
+  private Map<String, ShingleProfile> profiles = new ConcurrentHashMap<>();
+  // GumTree trees by the terminal body, empty if the body cannot be parsed
+  private Map<String, CompletableFuture<Optional<ITree>>> bodyTrees = new ConcurrentHashMap<>();
+  // ids of qualified names, to compare contexts of nodes in both graphs as sets of ints
+  private Map<String, Integer> nameIds = new ConcurrentHashMap<>();
+  private AtomicInteger nextNameId = new AtomicInteger();
+
+  /**
+   * Get the shingle profile of the string, computed on first use
+   *
+   * @param string
+   * @return
+   */
+  public ShingleProfile getProfile(String string) {
+    ShingleProfile profile = profiles.get(string);
+    if (profile == null) {
+      profile = profiles.computeIfAbsent(string, ShingleProfile::new);
+    }
+    return profile;
+  }
+
+  /**
+   * Get the GumTree tree of the terminal body, parsed on first use by the first requester outside
+   * the map, so that parsing one body does not block requests of other bodies
+   *
+   * @param body
+   * @return null if the body cannot be parsed
+   */
+  public ITree getBodyTree(String body) {
+    CompletableFuture<Optional<ITree>> future = bodyTrees.get(body);
+    if (future == null) {
+      CompletableFuture<Optional<ITree>> newFuture = new CompletableFuture<>();
+      future = bodyTrees.putIfAbsent(body, newFuture);
+      if (future == null) {
+        try {
+          Optional<ITree> tree = parseBody(body);
+          newFuture.complete(tree);
+          return tree.orElse(null);
+        } catch (RuntimeException | Error e) {
+          newFuture.completeExceptionally(e);
+          throw e;
+        }
+      }
+    }
+    try {
+      return future.join().orElse(null);
+    } catch (CompletionException e) {
+      // rethrow the failure of the requester that parsed it
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw (RuntimeException) e.getCause();
+    }
+  }
+
+  /**
+   * Get the id of the qualified name, numbered on first use
+   *
+   * @param qualifiedName
+   * @return -1 for null
+   */
+  public int getNameId(String qualifiedName) {
+    if (qualifiedName == null) {
+      return -1;
+    }
+    Integer id = nameIds.get(qualifiedName);
+    if (id == null) {
+      id = nameIds.computeIfAbsent(qualifiedName, name -> nextNameId.getAndIncrement());
+    }
+    return id;
+  }
+
+  private static Optional<ITree> parseBody(String body) {
+    try {
+      JdtTreeGenerator generator = new JdtTreeGenerator();
+      generator.setKind(ASTParser.K_STATEMENTS);
+      ITree root = generator.generateFrom().string(body).getRoot();
+      // metrics are computed lazily for the whole tree, compute them before sharing the tree
+      root.getMetrics();
+      return Optional.of(root);
+    } catch (IOException e) {
+      e.printStackTrace();
+      return Optional.empty();
+    }
+  }
+
+  public int getProfileCount() {
+    return profiles.size();
+  }
+
+  public int getBodyTreeCount() {
+    return bodyTrees.size();
+  }
+}
@@ -0,0 +1,152 @@
+package edu.pku.intellimerge.util;
+
+import edu.pku.intellimerge.model.constant.Side;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.merge.MergeAlgorithm;
+import org.eclipse.jgit.merge.MergeFormatter;
+import org.eclipse.jgit.merge.MergeResult;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Three-way textual merge of node components with jGit, ignoring whitespaces
+ *
+ * <p>Most components (signatures, qualified names, modifiers) are single lines, which are merged
+ * without encoding them, with the same result as jGit: a line changed only in whitespaces is
+ * unchanged, and both sides changing the line in the same way is not a conflict.
+ */
+public class TextualMerger {
+  private static final String CONFLICT_OURS_BEGIN = "<<<<<<< " + Side.OURS.asString() + "\n";
+  private static final String CONFLICT_THEIRS_BEGIN = "\n=======\n";
+  private static final String CONFLICT_THEIRS_END = "\n>>>>>>> " + Side.THEIRS.asString() + "\n";
+
+  /**
+   * Merge content string textually
+   *
+   * @param leftContent
+   * @param baseContent
+   * @param rightContent
+   * @return null if jGit fails
+   */
+  public static String merge(String leftContent, String baseContent, String rightContent) {
+    // jgit has bug with single side change
+    if (leftContent.equals(baseContent)) {
+      return rightContent;
+    }
+    if (rightContent.equals(baseContent)) {
+      return leftContent;
+    }
+    if (isSingleLine(leftContent) && isSingleLine(baseContent) && isSingleLine(rightContent)) {
+      return mergeLine(leftContent, baseContent, rightContent);
+    }
+    return mergeWithJGit(leftContent, baseContent, rightContent);
+  }
+
+  /**
+   * Merge single lines in the way of jGit
+   *
+   * @param left
+   * @param base
+   * @param right
+   * @return
+   */
+  private static String mergeLine(String left, String base, String right) {
+    boolean leftChanged = !equalsIgnoreWhitespaces(left, base);
+    boolean rightChanged = !equalsIgnoreWhitespaces(right, base);
+    if (!leftChanged) {
+      return rightChanged ? right : base;
+    }
+    if (!rightChanged || equalsIgnoreWhitespaces(left, right)) {
+      // changed in one side, or the same change in both sides
+      return left;
+    }
+    return CONFLICT_OURS_BEGIN + left + CONFLICT_THEIRS_BEGIN + right + CONFLICT_THEIRS_END;
+  }
+
+  private static String mergeWithJGit(
+      String leftContent, String baseContent, String rightContent) {
+    String textualMergeResult = null;
+    try {
+      // TODO merge with git-merge for diff3 conflict style
+      RawTextComparator textComparator = RawTextComparator.WS_IGNORE_ALL; //  ignoreWhiteSpaces
+      @SuppressWarnings("rawtypes")
+      MergeResult mergeResult =
+          new MergeAlgorithm()
+              .merge(
+                  textComparator,
+                  new RawText(Constants.encode(baseContent)),
+                  new RawText(Constants.encode(leftContent)),
+                  new RawText(Constants.encode(rightContent)));
+      // large enough for both sides in conflict, without growing in most cases
+      ByteArrayOutputStream output =
+          new ByteArrayOutputStream(leftContent.length() + rightContent.length() + 64);
+      (new MergeFormatter())
+          .formatMerge(
+              output,
+              mergeResult,
+              Side.BASE.asString(),
+              Side.OURS.asString(),
+              Side.THEIRS.asString(),
+              StandardCharsets.UTF_8);
+      textualMergeResult = output.toString(StandardCharsets.UTF_8.name());
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+    return textualMergeResult;
+  }
+
+  /**
+   * Whether the string is one non-empty line that encodes to itself, so that it can be compared
+   * char by char instead of byte by byte
+   *
+   * @param content
+   * @return
+   */
+  private static boolean isSingleLine(String content) {
+    if (content.isEmpty()) {
+      return false;
+    }
+    for (int i = 0; i < content.length(); ++i) {
+      char c = content.charAt(i);
+      if (c == '\n' || Character.isSurrogate(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Compare two lines ignoring whitespaces, in the same way as RawTextComparator.WS_IGNORE_ALL
+   *
+   * @param s1
+   * @param s2
+   * @return
+   */
+  private static boolean equalsIgnoreWhitespaces(String s1, String s2) {
+    int i = 0;
+    int j = 0;
+    while (true) {
+      while (i < s1.length() && isWhitespace(s1.charAt(i))) {
+        i++;
+      }
+      while (j < s2.length() && isWhitespace(s2.charAt(j))) {
+        j++;
+      }
+      if (i == s1.length() || j == s2.length()) {
+        return i == s1.length() && j == s2.length();
+      }
+      if (s1.charAt(i) != s2.charAt(j)) {
+        return false;
+      }
+      i++;
+      j++;
+    }
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+  }
+}
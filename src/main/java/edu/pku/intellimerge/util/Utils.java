@@ -3,13 +3,14 @@ package edu.pku.intellimerge.util;
 import com.commentremover.app.CommentProcessor;
 import com.commentremover.app.CommentRemover;
 import com.commentremover.exception.CommentRemoverException;
+import com.github.javaparser.Position;
+import com.github.javaparser.Range;
 import com.google.googlejavaformat.FormatterDiagnostic;
 import com.google.googlejavaformat.java.Formatter;
 import com.google.googlejavaformat.java.FormatterException;
 import edu.pku.intellimerge.model.ConflictBlock;
 import edu.pku.intellimerge.model.SourceFile;
 import edu.pku.intellimerge.model.constant.Side;
-import edu.pku.intellimerge.model.mapping.EdgeLabel;
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -914,12 +916,36 @@ public class Utils {
     return lines.size();
   }
 
-  public static Integer getEdgeLabelIndex(String edgeLabel) {
-    for (EdgeLabel label : EdgeLabel.values()) {
-      if (label.name().equals(edgeLabel)) {
-        return label.getIndex();
-      }
+  /**
+   * Write an optional range into the object stream, since Range is not serializable
+   *
+   * @param out
+   * @param range
+   * @throws IOException
+   */
+  public static void writeRange(ObjectOutputStream out, Optional<Range> range) throws IOException {
+    out.writeBoolean(range.isPresent());
+    if (range.isPresent()) {
+      out.writeInt(range.get().begin.line);
+      out.writeInt(range.get().begin.column);
+      out.writeInt(range.get().end.line);
+      out.writeInt(range.get().end.column);
+    }
+  }
+
+  /**
+   * Read an optional range written by {@link #writeRange(ObjectOutputStream, Optional)}
+   *
+   * @param in
+   * @return
+   * @throws IOException
+   */
+  public static Optional<Range> readRange(ObjectInputStream in) throws IOException {
+    if (!in.readBoolean()) {
+      return Optional.empty();
     }
-    return -1;
+    Position begin = new Position(in.readInt(), in.readInt());
+    Position end = new Position(in.readInt(), in.readInt());
+    return Optional.of(new Range(begin, end));
   }
 }
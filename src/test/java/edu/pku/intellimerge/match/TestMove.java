@@ -11,6 +11,7 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -64,4 +65,29 @@ public class TestMove {
             .collect(Collectors.toSet());
     assertThat(refsOurs.size()).isEqualTo(4);
   }
+
+  @Test
+  public void testPartitionedMatching() throws Exception {
+    for (String scenario : new String[] {"MoveMethod/AcrossFiles", "MoveField/InsideFile"}) {
+      String targetDir = Utils.getProjectRootDir() + "/src/test/resources/Move/" + scenario + "/";
+      TwowayMatching matching = Util.matchGraphsTwoway(targetDir, Side.BASE, Side.OURS, false);
+      TwowayMatching partitioned =
+          Util.matchGraphsTwoway(targetDir, Side.BASE, Side.OURS, true);
+      // members moved across types are matched in the pass after partitions
+      assertThat(asStrings(partitioned.refactorings))
+          .isEqualTo(asStrings(matching.refactorings));
+    }
+  }
+
+  private Set<String> asStrings(List<Refactoring> refactorings) {
+    return refactorings.stream()
+        .map(
+            refactoring ->
+                refactoring.getRefactoringType()
+                    + ":"
+                    + refactoring.getBefore().getQualifiedName()
+                    + "->"
+                    + refactoring.getAfter().getQualifiedName())
+        .collect(Collectors.toSet());
+  }
 }
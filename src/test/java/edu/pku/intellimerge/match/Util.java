@@ -90,6 +90,20 @@ public class Util {
    * @return
    */
   public static TwowayMatching matchGraphsTwoway(String targetDir, Side side1, Side side2) {
+    return matchGraphsTwoway(targetDir, side1, side2, false);
+  }
+
+  /**
+   * Two-way matching, optionally matching members within matched types first
+   *
+   * @param targetDir
+   * @param side1
+   * @param side2
+   * @param partitioned
+   * @return
+   */
+  public static TwowayMatching matchGraphsTwoway(
+      String targetDir, Side side1, Side side2, boolean partitioned) {
     String targetDirName = Utils.getDirSimpleName(targetDir);
 
     try {
@@ -116,6 +130,7 @@ public class Util {
 
       logger.info("Building graph done for {}", targetDir);
       GraphMatcher matcher = new GraphMatcher(graph1, graph2);
+      matcher.setPartitioned(partitioned);
       matcher.topDownMatch();
       matcher.bottomUpMatch();
       logger.info("Matching done for {}", targetDir);
@@ -0,0 +1,234 @@
+package edu.pku.intellimerge.merge;
+
+import edu.pku.intellimerge.core.GraphBuilderV2;
+import edu.pku.intellimerge.core.GraphMerger;
+import edu.pku.intellimerge.io.Graph2CodePrinter;
+import edu.pku.intellimerge.model.SemanticEdge;
+import edu.pku.intellimerge.model.SemanticNode;
+import edu.pku.intellimerge.model.constant.NodeType;
+import edu.pku.intellimerge.model.constant.Side;
+import edu.pku.intellimerge.model.node.CompilationUnitNode;
+import org.apache.log4j.PropertyConfigurator;
+import org.jgrapht.Graph;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Merging subtrees unchanged in one side by taking the subtree of the other side as it is */
+public class TestSubtreeSharing {
+  private static final String BASE =
+      code(
+          "package p;",
+          "",
+          "public class A {",
+          "  private int x;",
+          "",
+          "  public int getX() {",
+          "    return x;",
+          "  }",
+          "",
+          "  public void setX(int x) {",
+          "    this.x = x;",
+          "  }",
+          "",
+          "  class Inner {",
+          "    public void print() {",
+          "      System.out.println(x);",
+          "    }",
+          "  }",
+          "}");
+
+  @BeforeAll
+  public static void setUpBeforeAll() {
+    PropertyConfigurator.configure("log4j.properties");
+  }
+
+  @Test
+  public void testShareChangedSide(@TempDir Path targetDir) throws IOException {
+    String ours =
+        BASE.replace("return x;", "return x + 1;")
+            .replace("class A {\n", "class A {\n\n")
+            .replace("private int x;\n", "private int x;\n\n");
+    writeScenario(targetDir, ours, BASE, BASE);
+
+    // the class is unchanged in theirs, so ours is printed as it is
+    assertThat(merge(targetDir, "shared", graph -> {}))
+        .isEqualTo(print(targetDir, Side.OURS));
+  }
+
+  @Test
+  public void testBlankLinesFromChangedSide(@TempDir Path targetDir) throws IOException {
+    // only blank lines are changed in ours
+    String ours = BASE.replace("class A {\n", "class A {\n\n").replace("  }\n\n", "  }\n\n\n");
+    writeScenario(targetDir, ours, BASE, BASE);
+
+    String merged = merge(targetDir, "shared", graph -> {});
+    // the blank lines between members are taken from ours, while the regular merge takes the
+    // blank lines after members from theirs and the blank lines before the first one from base
+    assertThat(merged).isEqualTo(print(targetDir, Side.OURS));
+    assertThat(merge(targetDir, "regular", TestSubtreeSharing::clearSubtreeHashes))
+        .isEqualTo(print(targetDir, Side.THEIRS))
+        .isNotEqualTo(merged);
+  }
+
+  @Test
+  public void testMemberMovedIntoType(@TempDir Path targetDir) throws IOException {
+    String ours =
+        code(
+            "package p;",
+            "",
+            "public class A {",
+            "  private int x;",
+            "",
+            "  public int getX() {",
+            "    return x;",
+            "  }",
+            "",
+            "  class Inner {",
+            "    public void setX(int x) {",
+            "      A.this.x = x;",
+            "    }",
+            "",
+            "    public void print() {",
+            "      System.out.println(x);",
+            "    }",
+            "  }",
+            "}");
+    String theirs = BASE.replace("return x;", "return x + 1;");
+    writeScenario(targetDir, ours, BASE, theirs);
+
+    assertMergedAsRegular(targetDir, "void setX(");
+  }
+
+  @Test
+  public void testMemberMovedOutOfType(@TempDir Path targetDir) throws IOException {
+    String ours =
+        code(
+            "package p;",
+            "",
+            "public class A {",
+            "  private int x;",
+            "",
+            "  public int getX() {",
+            "    return x;",
+            "  }",
+            "",
+            "  public void setX(int x) {",
+            "    this.x = x;",
+            "  }",
+            "",
+            "  public void print() {",
+            "    System.out.println(x);",
+            "  }",
+            "",
+            "  class Inner {}",
+            "}");
+    String theirs = BASE.replace("return x;", "return x + 1;");
+    writeScenario(targetDir, ours, BASE, theirs);
+
+    assertMergedAsRegular(targetDir, "void print(");
+  }
+
+  @Test
+  public void testSubtreeHashCollision(@TempDir Path targetDir) throws IOException {
+    String ours = BASE.replace("return x;", "return x + 1;");
+    String theirs = BASE.replace("this.x = x;", "this.x = x + 1;");
+    writeScenario(targetDir, ours, BASE, theirs);
+
+    // all subtrees with the same hash are compared by their content
+    assertThat(merge(targetDir, "collision", TestSubtreeSharing::collideSubtreeHashes))
+        .isEqualTo(merge(targetDir, "shared", graph -> {}))
+        .contains("return x + 1;")
+        .contains("this.x = x + 1;");
+  }
+
+  /**
+   * The type of the moved member is not shared from either side, so the member is not printed
+   * twice, once in the shared type and once by the regular merge of the rest
+   */
+  private void assertMergedAsRegular(Path targetDir, String member) throws IOException {
+    String merged = merge(targetDir, "shared", graph -> {});
+    assertThat(merged)
+        .isEqualTo(merge(targetDir, "regular", TestSubtreeSharing::clearSubtreeHashes))
+        .contains("return x + 1;");
+    assertThat(merged.indexOf(member)).isEqualTo(merged.lastIndexOf(member)).isNotNegative();
+  }
+
+  private static String code(String... lines) {
+    return String.join("\n", lines) + "\n";
+  }
+
+  private void writeScenario(Path targetDir, String ours, String base, String theirs)
+      throws IOException {
+    List<Side> sides = Arrays.asList(Side.OURS, Side.BASE, Side.THEIRS);
+    List<String> contents = Arrays.asList(ours, base, theirs);
+    for (int i = 0; i < sides.size(); ++i) {
+      Path file = targetDir.resolve(Paths.get(sides.get(i).asString(), "p", "A.java"));
+      Files.createDirectories(file.getParent());
+      Files.write(file, contents.get(i).getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Merge the scenario and return the merged file
+   *
+   * @param targetDir
+   * @param resultName
+   * @param prepare applied to each graph before matching
+   * @return
+   */
+  private String merge(
+      Path targetDir, String resultName, Consumer<Graph<SemanticNode, SemanticEdge>> prepare)
+      throws IOException {
+    Graph<SemanticNode, SemanticEdge> oursGraph = build(targetDir, Side.OURS);
+    Graph<SemanticNode, SemanticEdge> baseGraph = build(targetDir, Side.BASE);
+    Graph<SemanticNode, SemanticEdge> theirsGraph = build(targetDir, Side.THEIRS);
+    prepare.accept(oursGraph);
+    prepare.accept(baseGraph);
+    prepare.accept(theirsGraph);
+    GraphMerger merger =
+        new GraphMerger(
+            targetDir.resolve(resultName).toString(), oursGraph, baseGraph, theirsGraph);
+    merger.threewayMap();
+    List<String> mergedFilePaths = merger.threewayMerge();
+    assertThat(mergedFilePaths).hasSize(1);
+    return new String(Files.readAllBytes(Paths.get(mergedFilePaths.get(0))));
+  }
+
+  private String print(Path targetDir, Side side) throws IOException {
+    CompilationUnitNode cu =
+        (CompilationUnitNode)
+            build(targetDir, side).vertexSet().stream()
+                .filter(node -> node.getNodeType().equals(NodeType.COMPILATION_UNIT))
+                .findFirst()
+                .get();
+    String printedDir = targetDir.resolve(side.asString() + "Printed").toString();
+    String printedFile = Graph2CodePrinter.printCU(cu, cu, printedDir);
+    return new String(Files.readAllBytes(Paths.get(printedFile)));
+  }
+
+  private Graph<SemanticNode, SemanticEdge> build(Path targetDir, Side side) {
+    return new GraphBuilderV2(side, targetDir.toString(), false).call();
+  }
+
+  /** Merge every subtree in the regular way */
+  private static void clearSubtreeHashes(Graph<SemanticNode, SemanticEdge> graph) {
+    graph.vertexSet().forEach(node -> node.setSubtreeHash(0L));
+  }
+
+  /** Give every subtree the same hash, as if all of them collide */
+  private static void collideSubtreeHashes(Graph<SemanticNode, SemanticEdge> graph) {
+    graph.vertexSet().forEach(node -> node.setSubtreeHash(1L));
+  }
+}
@@ -0,0 +1,83 @@
+package edu.pku.intellimerge.other;
+
+import edu.pku.intellimerge.core.matcher.AssignmentSolver;
+import edu.pku.intellimerge.core.matcher.HungarianSolver;
+import edu.pku.intellimerge.core.matcher.SparseAssignmentSolver;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class TestAssignmentSolver {
+  @Test
+  public void testOptimalAssignment() {
+    Random random = new Random(42);
+    for (int round = 0; round < 500; ++round) {
+      int rowCount = 1 + random.nextInt(10);
+      int columnCount = 1 + random.nextInt(10);
+      double density = random.nextDouble();
+      double[][] matrix = new double[rowCount][columnCount];
+      int[] rows = new int[rowCount * columnCount];
+      int[] columns = new int[rowCount * columnCount];
+      double[] weights = new double[rowCount * columnCount];
+      int edgeCount = 0;
+      for (int i = 0; i < rowCount; ++i) {
+        for (int j = 0; j < columnCount; ++j) {
+          if (random.nextDouble() < density) {
+            // coarse weights to have ties
+            matrix[i][j] = 0.618 + random.nextInt(8) / 20D;
+            rows[edgeCount] = i;
+            columns[edgeCount] = j;
+            weights[edgeCount] = matrix[i][j];
+            edgeCount++;
+          }
+        }
+      }
+      double expected = bruteForce(matrix, columnCount);
+      for (AssignmentSolver solver :
+          new AssignmentSolver[] {new HungarianSolver(), new SparseAssignmentSolver()}) {
+        int[] assignment =
+            solver.solve(
+                rowCount,
+                columnCount,
+                Arrays.copyOf(rows, edgeCount),
+                Arrays.copyOf(columns, edgeCount),
+                Arrays.copyOf(weights, edgeCount));
+        double total = 0D;
+        Set<Integer> used = new HashSet<>();
+        for (int i = 0; i < rowCount; ++i) {
+          if (assignment[i] >= 0) {
+            assertThat(used.add(assignment[i])).isTrue();
+            assertThat(matrix[i][assignment[i]]).isPositive();
+            total += matrix[i][assignment[i]];
+          }
+        }
+        assertThat(total).isCloseTo(expected, within(1e-9));
+      }
+    }
+  }
+
+  /** Maximum total weight over subsets of matched columns, row by row */
+  private double bruteForce(double[][] matrix, int columnCount) {
+    double[] best = new double[1 << columnCount];
+    Arrays.fill(best, Double.NEGATIVE_INFINITY);
+    best[0] = 0D;
+    for (double[] row : matrix) {
+      double[] next = best.clone();
+      for (int mask = 0; mask < best.length; ++mask) {
+        for (int j = 0; j < columnCount; ++j) {
+          if (best[mask] > Double.NEGATIVE_INFINITY && (mask & (1 << j)) == 0 && row[j] > 0) {
+            next[mask | (1 << j)] = Math.max(next[mask | (1 << j)], best[mask] + row[j]);
+          }
+        }
+      }
+      best = next;
+    }
+    return Arrays.stream(best).max().getAsDouble();
+  }
+}
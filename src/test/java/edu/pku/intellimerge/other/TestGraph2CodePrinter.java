@@ -0,0 +1,207 @@
+package edu.pku.intellimerge.other;
+
+import edu.pku.intellimerge.core.GraphBuilderV2;
+import edu.pku.intellimerge.io.Graph2CodePrinter;
+import edu.pku.intellimerge.model.SemanticEdge;
+import edu.pku.intellimerge.model.SemanticNode;
+import edu.pku.intellimerge.model.constant.NodeType;
+import edu.pku.intellimerge.model.constant.Side;
+import edu.pku.intellimerge.model.node.CompilationUnitNode;
+import edu.pku.intellimerge.model.node.CompositeNode;
+import edu.pku.intellimerge.model.node.OrphanCommentNode;
+import edu.pku.intellimerge.model.node.TerminalNode;
+import edu.pku.intellimerge.util.Utils;
+import org.jgrapht.Graph;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestGraph2CodePrinter {
+  @Test
+  public void testSameAsStringPrinter(@TempDir Path resultDir) throws IOException {
+    List<Path> scenarioDirs;
+    try (Stream<Path> dirs =
+        Files.walk(Paths.get(Utils.getProjectRootDir(), "src", "test", "resources"))) {
+      scenarioDirs =
+          dirs.filter(dir -> Files.isDirectory(dir.resolve(Side.BASE.asString())))
+              .sorted()
+              .collect(Collectors.toList());
+    }
+    assertThat(scenarioDirs).isNotEmpty();
+
+    int printedCount = 0;
+    for (Path scenarioDir : scenarioDirs) {
+      for (Side side : Arrays.asList(Side.OURS, Side.BASE, Side.THEIRS)) {
+        Path sideDir = scenarioDir.resolve(side.asString());
+        if (!Files.isDirectory(sideDir)) {
+          continue;
+        }
+        // the sources as they are, and with CRLF line breaks
+        for (boolean crlf : Arrays.asList(false, true)) {
+          Graph<SemanticNode, SemanticEdge> graph =
+              new GraphBuilderV2(null, side, readSources(sideDir, crlf)).call();
+          for (SemanticNode node : graph.vertexSet()) {
+            if (node.getNodeType().equals(NodeType.COMPILATION_UNIT) && node.isInternal()) {
+              CompilationUnitNode cu = (CompilationUnitNode) node;
+              String streamedFile =
+                  Graph2CodePrinter.printCU(cu, cu, resultDir.resolve("streamed").toString());
+              String builtFile = printCUAsString(cu, resultDir.resolve("built").toString());
+              assertThat(Files.readAllBytes(Paths.get(streamedFile)))
+                  .as("%s %s crlf=%s", sideDir, cu.getRelativePath(), crlf)
+                  .isEqualTo(Files.readAllBytes(Paths.get(builtFile)));
+              printedCount++;
+            }
+          }
+        }
+      }
+    }
+    assertThat(printedCount).isPositive();
+  }
+
+  private Map<String, byte[]> readSources(Path sideDir, boolean crlf) throws IOException {
+    Map<String, byte[]> sources = new HashMap<>();
+    try (Stream<Path> files = Files.walk(sideDir)) {
+      for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+        byte[] content = Files.readAllBytes(file);
+        if (crlf) {
+          content =
+              new String(content, StandardCharsets.UTF_8)
+                  .replace("\r\n", "\n")
+                  .replace("\n", "\r\n")
+                  .getBytes(StandardCharsets.UTF_8);
+        }
+        sources.put(sideDir.relativize(file).toString(), content);
+      }
+    }
+    return sources;
+  }
+
+  /** The printer before streaming: build the code of each node as a string and indent its lines */
+  private String printCUAsString(CompilationUnitNode cu, String resultDir) {
+    String resultFilePath =
+        Utils.formatPathSeparator(resultDir + "/" + cu.getRelativePath());
+    StringBuilder builder = new StringBuilder();
+    builder.append(
+        cu.getComment().isEmpty()
+            ? ""
+            : cu.getComment() + System.lineSeparator() + System.lineSeparator());
+    builder.append(cu.getPackageStatement());
+    cu.getImportStatements().forEach(builder::append);
+    builder.append(printNodeAsString(cu));
+    Utils.writeContent(resultFilePath, builder.toString(), false);
+    return resultFilePath;
+  }
+
+  private String printNodeAsString(SemanticNode node) {
+    int indent = 0;
+    if (node.getRange().isPresent()) {
+      indent = node.getRange().get().begin.column - 1;
+    }
+    StringBuilder builder = new StringBuilder();
+    if (node instanceof TerminalNode) {
+      builder.append(
+          node.getComment().isEmpty() ? "" : (node.getComment().trim() + System.lineSeparator()));
+      builder.append(
+          node.getAnnotations().isEmpty()
+              ? ""
+              : (String.join(System.lineSeparator(), node.getAnnotations())
+                  + System.lineSeparator()));
+      if (node.getNodeType().equals(NodeType.INITIALIZER_BLOCK)) {
+        builder.append(node.getOriginalSignature().contains("static") ? "static" : "");
+      } else {
+        builder.append(node.getOriginalSignature());
+      }
+      builder.append(((TerminalNode) node).getBody());
+      appendEOL(builder, node.followingEOL);
+    } else if (node instanceof CompositeNode) {
+      if (!node.getNodeType().equals(NodeType.COMPILATION_UNIT)) {
+        builder.append(
+            node.getComment().isEmpty()
+                ? ""
+                : (node.getComment().trim() + System.lineSeparator()));
+        builder.append(
+            node.getAnnotations().isEmpty()
+                ? ""
+                : (String.join(System.lineSeparator(), node.getAnnotations())
+                    + System.lineSeparator()));
+        builder.append(node.getOriginalSignature());
+        builder.append(((CompositeNode) node).curlyBracePrefix);
+        builder.append("{");
+        appendEOL(builder, ((CompositeNode) node).beforeFirstChildEOL);
+      }
+      if (node.getNodeType().equals(NodeType.ENUM)) {
+        int childrenSize = node.getChildren().size();
+        for (int i = 0; i < childrenSize; ++i) {
+          SemanticNode child = node.getChildAtPosition(i);
+          builder.append(printNodeAsString(child));
+          if (i + 1 < childrenSize && child.getNodeType().equals(NodeType.ENUM_CONSTANT)) {
+            if (node.getChildAtPosition(i + 1).getNodeType().equals(NodeType.ENUM_CONSTANT)) {
+              builder.append(",");
+            } else {
+              builder.append(";");
+            }
+          }
+        }
+      } else {
+        for (SemanticNode child : node.getChildren()) {
+          builder.append(printNodeAsString(child)).append(System.lineSeparator());
+        }
+      }
+      if (!node.getNodeType().equals(NodeType.COMPILATION_UNIT)) {
+        builder.append("}");
+      }
+      if (node.followingEOL > 1) {
+        appendEOL(builder, node.followingEOL);
+      }
+    } else if (node instanceof OrphanCommentNode) {
+      builder.append(node.getOriginalSignature());
+      appendEOL(builder, node.followingEOL);
+    }
+    return indentCodeLines(builder.toString(), indent);
+  }
+
+  private void appendEOL(StringBuilder builder, int count) {
+    for (int i = 0; i < count; ++i) {
+      builder.append(System.lineSeparator());
+    }
+  }
+
+  private String indentCodeLines(String code, int indent) {
+    List<String> indentedLines = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(new StringReader(code))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int spaceCount = line.indexOf(line.trim());
+        String indentedLine = line;
+        if (spaceCount < indent
+            && !line.contains(Utils.CONFLICT_LEFT_BEGIN)
+            && !line.contains(Utils.CONFLICT_BASE_BEGIN)
+            && !line.contains(Utils.CONFLICT_RIGHT_BEGIN)
+            && !line.contains(Utils.CONFLICT_RIGHT_END)) {
+          indentedLine = String.join("", Collections.nCopies(indent, " ")) + line;
+        }
+        indentedLines.add(indentedLine);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return String.join(System.lineSeparator(), indentedLines);
+  }
+}
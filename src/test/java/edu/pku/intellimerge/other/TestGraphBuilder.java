@@ -0,0 +1,150 @@
+package edu.pku.intellimerge.other;
+
+import edu.pku.intellimerge.core.FragmentStore;
+import edu.pku.intellimerge.core.GraphBuilderV2;
+import edu.pku.intellimerge.core.ParseCache;
+import edu.pku.intellimerge.model.SemanticEdge;
+import edu.pku.intellimerge.model.SemanticNode;
+import edu.pku.intellimerge.model.constant.Side;
+import edu.pku.intellimerge.util.Utils;
+import org.jgrapht.Graph;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestGraphBuilder {
+  @Test
+  public void testParallelBuild() {
+    String targetDir =
+        Utils.getProjectRootDir() + "/src/test/resources/Move/MoveMethod/AcrossFiles/";
+
+    GraphBuilderV2 sequentialBuilder = new GraphBuilderV2(Side.OURS, targetDir, false);
+    sequentialBuilder.setBuildInParallel(false);
+    Graph<SemanticNode, SemanticEdge> sequentialGraph = sequentialBuilder.call();
+
+    GraphBuilderV2 parallelBuilder = new GraphBuilderV2(Side.OURS, targetDir, false);
+    parallelBuilder.setBuildInParallel(true);
+    Graph<SemanticNode, SemanticEdge> parallelGraph = parallelBuilder.call();
+
+    assertThat(sequentialGraph.vertexSet()).isNotEmpty();
+    assertThat(describeVertices(parallelGraph)).isEqualTo(describeVertices(sequentialGraph));
+    assertThat(describeEdges(parallelGraph)).isEqualTo(describeEdges(sequentialGraph));
+  }
+
+  @Test
+  public void testParseCache() {
+    String targetDir = Utils.getProjectRootDir() + "/src/test/resources/Rename/RenameField/";
+
+    Graph<SemanticNode, SemanticEdge> graph =
+        new GraphBuilderV2(Side.BASE, targetDir, false).call();
+
+    ParseCache parseCache = new ParseCache();
+    GraphBuilderV2 firstBuilder = new GraphBuilderV2(Side.BASE, targetDir, false);
+    firstBuilder.setParseCache(parseCache);
+    firstBuilder.call();
+    GraphBuilderV2 secondBuilder = new GraphBuilderV2(Side.BASE, targetDir, false);
+    secondBuilder.setParseCache(parseCache);
+    Graph<SemanticNode, SemanticEdge> cachedGraph = secondBuilder.call();
+
+    assertThat(parseCache.getMissCount()).isOne();
+    assertThat(parseCache.getHitCount()).isOne();
+    assertThat(describeVertices(cachedGraph)).isEqualTo(describeVertices(graph));
+    assertThat(describeEdges(cachedGraph)).isEqualTo(describeEdges(graph));
+  }
+
+  @Test
+  public void testFragmentStore(@TempDir Path cacheDir) {
+    String targetDir = Utils.getProjectRootDir() + "/src/test/resources/Rename/RenameField/";
+
+    Graph<SemanticNode, SemanticEdge> graph =
+        new GraphBuilderV2(Side.BASE, targetDir, false).call();
+
+    FragmentStore fragmentStore = new FragmentStore(cacheDir.toString(), 1024 * 1024);
+    ParseCache firstCache = new ParseCache(fragmentStore);
+    GraphBuilderV2 firstBuilder = new GraphBuilderV2(Side.BASE, targetDir, false);
+    firstBuilder.setParseCache(firstCache);
+    firstBuilder.call();
+    assertThat(firstCache.getMissCount()).isOne();
+    assertThat(fragmentStore.getTotalSize()).isPositive();
+
+    // a new run loads the fragment from disk instead of parsing
+    ParseCache secondCache = new ParseCache(new FragmentStore(cacheDir.toString(), 1024 * 1024));
+    GraphBuilderV2 secondBuilder = new GraphBuilderV2(Side.BASE, targetDir, false);
+    secondBuilder.setParseCache(secondCache);
+    Graph<SemanticNode, SemanticEdge> storedGraph = secondBuilder.call();
+
+    assertThat(secondCache.getMissCount()).isZero();
+    assertThat(secondCache.getDiskHitCount()).isOne();
+    assertThat(describeVertices(storedGraph)).isEqualTo(describeVertices(graph));
+    assertThat(describeEdges(storedGraph)).isEqualTo(describeEdges(graph));
+  }
+
+  @Test
+  public void testInMemorySources() throws Exception {
+    String targetDir = Utils.getProjectRootDir() + "/src/test/resources/Rename/RenameField/";
+
+    Graph<SemanticNode, SemanticEdge> graph =
+        new GraphBuilderV2(Side.BASE, targetDir, false).call();
+
+    Path sideDir = Paths.get(targetDir, Side.BASE.asString());
+    Map<String, byte[]> sources = new HashMap<>();
+    try (Stream<Path> files = Files.walk(sideDir)) {
+      for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+        sources.put(sideDir.relativize(file).toString(), Files.readAllBytes(file));
+      }
+    }
+    Graph<SemanticNode, SemanticEdge> inMemoryGraph =
+        new GraphBuilderV2(null, Side.BASE, sources).call();
+
+    assertThat(describeVertices(inMemoryGraph)).isEqualTo(describeVertices(graph));
+    assertThat(describeEdges(inMemoryGraph)).isEqualTo(describeEdges(graph));
+  }
+
+  @Test
+  public void testSubtreeHash() {
+    String targetDir =
+        Utils.getProjectRootDir() + "/src/test/resources/Move/MoveMethod/InsideFile/";
+
+    Map<String, Long> baseHashes =
+        subtreeHashes(new GraphBuilderV2(Side.BASE, targetDir, false).call());
+    Map<String, Long> oursHashes =
+        subtreeHashes(new GraphBuilderV2(Side.OURS, targetDir, false).call());
+
+    String unchangedMethod = "com.github.gumtreediff.tree.AbstractTree.getChildPosition(ITree)";
+    assertThat(baseHashes.get(unchangedMethod)).isNotZero();
+    assertThat(oursHashes.get(unchangedMethod)).isEqualTo(baseHashes.get(unchangedMethod));
+    // a method is moved into the nested type in ours
+    String nestedType = "com.github.gumtreediff.tree.AbstractTree.FakeTree";
+    assertThat(oursHashes.get(nestedType)).isNotEqualTo(baseHashes.get(nestedType));
+  }
+
+  private List<String> describeVertices(Graph<SemanticNode, SemanticEdge> graph) {
+    return graph.vertexSet().stream()
+        .map(node -> node.getNodeID() + " " + node.asString())
+        .collect(Collectors.toList());
+  }
+
+  private Map<String, Long> subtreeHashes(Graph<SemanticNode, SemanticEdge> graph) {
+    return graph.vertexSet().stream()
+        .filter(SemanticNode::isInternal)
+        .collect(
+            Collectors.toMap(
+                SemanticNode::getQualifiedName, SemanticNode::getSubtreeHash, (h1, h2) -> h1));
+  }
+
+  private List<String> describeEdges(Graph<SemanticNode, SemanticEdge> graph) {
+    return graph.edgeSet().stream()
+        .map(edge -> edge.getEdgeID() + " " + edge.toString() + " " + edge.getWeight())
+        .collect(Collectors.toList());
+  }
+}
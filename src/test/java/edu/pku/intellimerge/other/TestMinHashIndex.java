@@ -0,0 +1,42 @@
+package edu.pku.intellimerge.other;
+
+import edu.pku.intellimerge.core.matcher.MinHashIndex;
+import edu.pku.intellimerge.util.SimilarityAlg;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestMinHashIndex {
+  @Test
+  public void testRecall() {
+    String[] words = {
+      "graph", "merge", "parser", "printer", "matcher", "builder", "cache", "store", "model", "node"
+    };
+    List<String> names1 = new ArrayList<>();
+    List<String> names2 = new ArrayList<>();
+    for (String module : words) {
+      for (String type : words) {
+        String prefix = "edu.pku." + module + "." + type.toUpperCase() + "Handler.";
+        names1.add(prefix + "process" + type + "(int, String)");
+        // renamed methods, changed signatures and moved types
+        names2.add(prefix + "handle" + type + "(int, String)");
+        names2.add(prefix + "process" + type + "(long)");
+        names2.add("org.example." + type + ".Util.helper" + module + "()");
+      }
+    }
+    MinHashIndex<String> index = new MinHashIndex<>(32, 2, Function.identity());
+    index.addAll(names2);
+
+    double recall = index.recall(names1, (n1, n2) -> SimilarityAlg.string(n1, n2) > 0.618D);
+    assertThat(recall).isGreaterThanOrEqualTo(0.95D);
+
+    long candidates = names1.stream().mapToLong(name -> index.query(name).size()).sum();
+    assertThat(candidates).isLessThan((long) names1.size() * names2.size() * 3 / 4);
+    // identical names are always candidates
+    assertThat(index.query(names2.get(0))).contains(names2.get(0));
+  }
+}
@@ -0,0 +1,108 @@
+package edu.pku.intellimerge.other;
+
+import edu.pku.intellimerge.model.SemanticEdge;
+import edu.pku.intellimerge.model.SemanticNode;
+import edu.pku.intellimerge.model.constant.EdgeType;
+import edu.pku.intellimerge.model.constant.NodeType;
+import edu.pku.intellimerge.model.mapping.NodeContext;
+import edu.pku.intellimerge.model.node.FieldDeclNode;
+import edu.pku.intellimerge.util.SimilarityAlg;
+import edu.pku.intellimerge.util.SimilarityCache;
+import info.debatty.java.stringsimilarity.Cosine;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestSimilarityAlg {
+  @Test
+  public void testCachedString() {
+    String[] strings = {
+      "edu.pku.intellimerge.core.GraphMatcher.topDownMatch()",
+      "edu.pku.intellimerge.core.GraphMatcher.bottomUpMatch()",
+      "public static double string(String s1, String s2)",
+      "public  static\tdouble string(String s1,\n String s2, SimilarityCache cache)",
+      "aaaaaa",
+      "abc",
+      "a  b"
+    };
+    Cosine cosine = new Cosine();
+    SimilarityCache cache = new SimilarityCache();
+    for (String s1 : strings) {
+      for (String s2 : strings) {
+        assertThat(SimilarityAlg.string(s1, s2)).isEqualTo(cosine.similarity(s1, s2));
+        assertThat(SimilarityAlg.string(s1, s2, cache)).isEqualTo(cosine.similarity(s1, s2));
+      }
+    }
+    assertThat(cache.getProfileCount()).isEqualTo(strings.length);
+  }
+
+  @Test
+  public void testCachedBodyAST() {
+    String[] bodies = {
+      "{ int a = 1; return a + 1; }",
+      "{ int b = 1; return b + 2; }",
+      "{ if (flag) { run(); } else { stop(); } }",
+      "{}"
+    };
+    SimilarityCache cache = new SimilarityCache();
+    for (String body1 : bodies) {
+      for (String body2 : bodies) {
+        double similarity = SimilarityAlg.bodyAST(body1, body2, cache, 0D);
+        if (body1.equals(body2)) {
+          assertThat(similarity).isEqualTo(1D);
+        }
+        // a fresh cache parses both bodies again
+        assertThat(similarity).isEqualTo(SimilarityAlg.bodyAST(body1, new String(body2)));
+      }
+    }
+    assertThat(cache.getBodyTreeCount()).isEqualTo(bodies.length);
+  }
+
+  @Test
+  public void testContext() {
+    SemanticNode node = field(0, "A.self");
+    SemanticNode[] others = {
+      field(1, "A.a"), field(2, "A.b"), field(3, "A.c"), field(4, "A.d"), field(5, "A.a")
+    };
+    // the duplicated name counts once
+    NodeContext context1 = context(node, others, new int[] {0, 1, 4}, new int[] {2});
+    NodeContext context2 = context(node, others, new int[] {0, 2}, new int[] {2, 3});
+    NodeContext joined = context(node, others, new int[] {3}, new int[] {});
+
+    SimilarityCache cache = new SimilarityCache();
+    // in: {a, b} vs {a, c}, out: {c} vs {c, d}
+    assertThat(SimilarityAlg.context(context1, context2, cache)).isEqualTo((1D / 3 + 1D / 2) / 2);
+    assertThat(SimilarityAlg.context(context1, context2)).isEqualTo((1D / 3 + 1D / 2) / 2);
+    assertThat(SimilarityAlg.context(context1, joined, context2, cache))
+        .isEqualTo(SimilarityAlg.context(context1.join(joined), context2, cache));
+  }
+
+  private FieldDeclNode field(int id, String qualifiedName) {
+    return new FieldDeclNode(
+        id,
+        true,
+        NodeType.FIELD,
+        qualifiedName,
+        qualifiedName,
+        "",
+        qualifiedName,
+        Optional.empty());
+  }
+
+  private NodeContext context(
+      SemanticNode node, SemanticNode[] others, int[] sources, int[] targets) {
+    Set<SemanticEdge> incomingEdges = new LinkedHashSet<>();
+    Set<SemanticEdge> outgoingEdges = new LinkedHashSet<>();
+    Arrays.stream(sources)
+        .forEach(i -> incomingEdges.add(new SemanticEdge(i, EdgeType.READ, others[i], node)));
+    Arrays.stream(targets)
+        .forEach(
+            i -> outgoingEdges.add(new SemanticEdge(10 + i, EdgeType.READ, node, others[i])));
+    return new NodeContext(incomingEdges, outgoingEdges);
+  }
+}
@@ -0,0 +1,89 @@
+package edu.pku.intellimerge.other;
+
+import edu.pku.intellimerge.io.SourceFileCollector;
+import edu.pku.intellimerge.model.constant.Side;
+import org.eclipse.jgit.api.Git;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestSourceFileCollector {
+  @Test
+  public void testResolveOneSideChanges(@TempDir Path repoDir) throws Exception {
+    try (Git git = Git.init().setDirectory(repoDir.toFile()).call()) {
+      writeFile(repoDir, "src/pkg/Same.java", "class Same {}");
+      writeFile(repoDir, "src/pkg/OursOnly.java", "class OursOnly {}");
+      writeFile(repoDir, "src/pkg/TheirsOnly.java", "class TheirsOnly {}");
+      writeFile(repoDir, "src/pkg/Deleted.java", "class Deleted {}");
+      writeFile(repoDir, "src/pkg/Helper.java", "class Helper {}");
+      writeFile(repoDir, "src/pkg/Both.java", "import pkg.Helper;\nclass Both {}");
+      commit(git, "base");
+      git.branchCreate().setName("ours").call();
+      git.branchCreate().setName("theirs").call();
+
+      git.checkout().setName("ours").call();
+      writeFile(repoDir, "src/pkg/Same.java", "class Same { int same; }");
+      writeFile(repoDir, "src/pkg/OursOnly.java", "class OursOnly { int ours; }");
+      writeFile(repoDir, "src/pkg/Added.java", "class Added {}");
+      writeFile(repoDir, "src/pkg/Helper.java", "class Helper { int ours; }");
+      writeFile(repoDir, "src/pkg/Both.java", "import pkg.Helper;\nclass Both { int ours; }");
+      commit(git, "ours");
+
+      git.checkout().setName("theirs").call();
+      writeFile(repoDir, "src/pkg/Same.java", "class Same { int same; }");
+      writeFile(repoDir, "src/pkg/TheirsOnly.java", "class TheirsOnly { int theirs; }");
+      git.rm().addFilepattern("src/pkg/Deleted.java").call();
+      writeFile(repoDir, "src/pkg/Both.java", "import pkg.Helper;\nclass Both { int theirs; }");
+      commit(git, "theirs");
+    }
+
+    SourceFileCollector collector =
+        new SourceFileCollector(repoDir.toString(), Arrays.asList("ours", "theirs"));
+    collector.setResolveOneSideChanges(true);
+    collector.collectFilesForAllSides();
+
+    Map<String, byte[]> resolvedSources = collector.getResolvedSources();
+    // the deleted file is resolved as deleted, the both changed file and its import are analyzed
+    assertThat(resolvedSources)
+        .containsOnlyKeys(
+            "src/pkg/Same.java",
+            "src/pkg/OursOnly.java",
+            "src/pkg/TheirsOnly.java",
+            "src/pkg/Added.java");
+    assertThat(content(resolvedSources, "src/pkg/Same.java")).isEqualTo("class Same { int same; }");
+    assertThat(content(resolvedSources, "src/pkg/OursOnly.java"))
+        .isEqualTo("class OursOnly { int ours; }");
+    assertThat(content(resolvedSources, "src/pkg/TheirsOnly.java"))
+        .isEqualTo("class TheirsOnly { int theirs; }");
+    assertThat(content(resolvedSources, "src/pkg/Added.java")).isEqualTo("class Added {}");
+
+    for (Side side : Arrays.asList(Side.OURS, Side.BASE, Side.THEIRS)) {
+      assertThat(collector.getCollectedSources(side))
+          .containsOnlyKeys("src/pkg/Both.java", "src/pkg/Helper.java");
+    }
+    assertThat(content(collector.getCollectedSources(Side.OURS), "src/pkg/Helper.java"))
+        .isEqualTo("class Helper { int ours; }");
+  }
+
+  private void writeFile(Path repoDir, String path, String content) throws Exception {
+    Path file = repoDir.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void commit(Git git, String message) throws Exception {
+    git.add().addFilepattern(".").call();
+    git.commit().setMessage(message).setAuthor("test", "test@test").call();
+  }
+
+  private String content(Map<String, byte[]> sources, String path) {
+    return new String(sources.get(path), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,63 @@
+package edu.pku.intellimerge.other;
+
+import edu.pku.intellimerge.util.TextualMerger;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.merge.MergeAlgorithm;
+import org.eclipse.jgit.merge.MergeFormatter;
+import org.eclipse.jgit.merge.MergeResult;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TestTextualMerger {
+  @Test
+  public void testSameAsJGit() throws IOException {
+    String[] tokens = {"int", "x", "y", "(", ")", " ", "  ", "\t", "\r", "\n", "é", ""};
+    Random random = new Random(0);
+    for (int i = 0; i < 20000; ++i) {
+      String base = randomString(random, tokens);
+      String left = random.nextInt(4) == 0 ? base : randomString(random, tokens);
+      String right = random.nextInt(4) == 0 ? left : randomString(random, tokens);
+      assertThat(TextualMerger.merge(left, base, right))
+          .as("%s|%s|%s", left, base, right)
+          .isEqualTo(mergeWithJGit(left, base, right));
+    }
+  }
+
+  private String randomString(Random random, String[] tokens) {
+    StringBuilder builder = new StringBuilder();
+    int length = random.nextInt(5);
+    for (int i = 0; i < length; ++i) {
+      builder.append(tokens[random.nextInt(tokens.length)]);
+    }
+    return builder.toString();
+  }
+
+  @SuppressWarnings("rawtypes")
+  private String mergeWithJGit(String left, String base, String right) throws IOException {
+    if (left.equals(base)) {
+      return right;
+    }
+    if (right.equals(base)) {
+      return left;
+    }
+    MergeResult result =
+        new MergeAlgorithm()
+            .merge(
+                RawTextComparator.WS_IGNORE_ALL,
+                new RawText(Constants.encode(base)),
+                new RawText(Constants.encode(left)),
+                new RawText(Constants.encode(right)));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new MergeFormatter()
+        .formatMerge(output, result, "base", "ours", "theirs", StandardCharsets.UTF_8);
+    return new String(output.toByteArray(), StandardCharsets.UTF_8);
+  }
+}